@@ -0,0 +1,4 @@
+#!/bin/sh
+
+javac -encoding UTF-8 -cp . ticketingsystem/Benchmark.java ticketingsystem/TicketingSystem.java
+java -cp . ticketingsystem/Benchmark ${1:-test/ticketingsystem/bench.txt}
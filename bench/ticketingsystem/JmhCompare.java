@@ -0,0 +1,130 @@
+package ticketingsystem;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * compare two directories of JMH csv results, e.g. of two commits
+ * rows are matched by benchmark, mode, threads and parameters, and a change
+ * larger than both error bars together is marked with *
+ * usage: JmhCompare <old results> <new results>
+ */
+public class JmhCompare {
+    // {score, error}, unit kept aside
+    private static class Result {
+        double score;
+        double error;
+        String unit;
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("usage: JmhCompare <old results> <new results>");
+            return;
+        }
+        Map<String, Result> before = read(Paths.get(args[0]));
+        Map<String, Result> after = read(Paths.get(args[1]));
+        TreeSet<String> keys = new TreeSet<>(before.keySet());
+        keys.addAll(after.keySet());
+        for (String key : keys) {
+            Result a = before.get(key);
+            Result b = after.get(key);
+            StringBuilder line = new StringBuilder(key);
+            line.append("  ").append(a == null ? "-" : format(a));
+            line.append("  ").append(b == null ? "-" : format(b));
+            if (a != null && b != null && a.score != 0) {
+                double change = (b.score - a.score) / a.score * 100;
+                boolean significant = Math.abs(b.score - a.score) > a.error + b.error;
+                line.append(String.format("  %+.1f%%%s", change, significant ? " *" : ""));
+            }
+            System.out.println(line);
+        }
+    }
+
+    private static String format(Result result) {
+        return String.format("%.3f +- %.3f %s", result.score, result.error, result.unit);
+    }
+
+    // key of each row of all csv files under dir
+    private static Map<String, Result> read(Path dir) {
+        Map<String, Result> results = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.csv")) {
+            for (Path file : files) {
+                List<String> lines = Files.readAllLines(file);
+                if (lines.isEmpty()) {
+                    continue;
+                }
+                List<String> header = split(lines.get(0));
+                for (String text : lines.subList(1, lines.size())) {
+                    List<String> row = split(text);
+                    if (row.size() != header.size()) {
+                        continue;
+                    }
+                    StringBuilder key = new StringBuilder();
+                    Result result = new Result();
+                    for (int i = 0; i < row.size(); ++i) {
+                        String column = header.get(i);
+                        String value = row.get(i);
+                        if (column.equals("Score")) {
+                            result.score = parse(value);
+                        } else if (column.startsWith("Score Error")) {
+                            result.error = parse(value);
+                        } else if (column.equals("Unit")) {
+                            result.unit = value;
+                        } else if (!column.equals("Samples")) {
+                            if (key.length() > 0) key.append(' ');
+                            key.append(column.startsWith("Param: ") ? column.substring(7) + "=" + value : value);
+                        }
+                    }
+                    results.put(key.toString(), result);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return results;
+    }
+
+    // NaN when JMH has no error for a single sample
+    private static double parse(String value) {
+        try {
+            double number = Double.parseDouble(value);
+            return Double.isNaN(number) ? 0 : number;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // one csv line, quotes removed
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    ++i;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,82 @@
+package ticketingsystem;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * false sharing of per-route hot state, compact against padded layout
+ * every thread sells and refunds on the same few routes, so the counters of
+ * neighbouring tours and the locks of neighbouring seats are hit together
+ * run it for each thread count with jmh.sh, e.g. THREADS="1 2 4 8" sh jmh.sh LayoutBench
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LayoutBench {
+    @State(Scope.Benchmark)
+    public static class Shared {
+        @Param({"compact", "padded"})
+        public String layout;
+        @Param({"2"})
+        public int routenum;
+        @Param({"4"})
+        public int coachnum;
+        @Param({"50"})
+        public int seatnum;
+        @Param({"8"})
+        public int stationnum;
+
+        TicketingDS tds;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            Options options = new Options();
+            options.paddedLayout = "padded".equals(layout);
+            // build the routes outside the measurement, an inquiry does not build them
+            options.hotRoutes = new int[routenum];
+            for (int route = 1; route <= routenum; ++route) {
+                options.hotRoutes[route - 1] = route;
+            }
+            tds = new TicketingDS(routenum, coachnum, seatnum, stationnum, 64, options);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final String name = "passenger" + Thread.currentThread().getId();
+    }
+
+    // one sale immediately refunded, so the trains never fill up
+    @Benchmark
+    public boolean buyRefund(Shared shared, Client client) {
+        int route = client.random.nextInt(shared.routenum) + 1;
+        int departure = client.random.nextInt(shared.stationnum - 1) + 1;
+        int arrival = departure + client.random.nextInt(shared.stationnum - departure) + 1;
+        Ticket ticket = shared.tds.buyTicket(client.name, route, departure, arrival);
+        return ticket != null && shared.tds.refundTicket(ticket);
+    }
+
+    @Benchmark
+    public int inquiry(Shared shared, Client client) {
+        int route = client.random.nextInt(shared.routenum) + 1;
+        int departure = client.random.nextInt(shared.stationnum - 1) + 1;
+        int arrival = departure + client.random.nextInt(shared.stationnum - departure) + 1;
+        return shared.tds.inquiry(route, departure, arrival);
+    }
+}
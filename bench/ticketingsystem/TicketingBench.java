@@ -0,0 +1,206 @@
+package ticketingsystem;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * operations of the ticketing engines one by one and mixed
+ * unlike the loop of Test, an engine is built once per trial and half
+ * filled before measuring, and passenger names are made once per thread
+ * topology and engine are parameters, e.g. -p engine=locked,padded -p routenum=5
+ * buy and refund are timed per batch of BATCH calls per thread, so that
+ * every iteration starts from the same fill rate
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TicketingBench {
+    // calls per thread in one batch of buys or refunds
+    static final int BATCH = 256;
+    // tickets kept by one client of the mixed workload
+    static final int HELD = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Topology {
+        @Param({"locked"})
+        public String engine;
+        @Param({"5", "20"})
+        public int routenum;
+        @Param({"10"})
+        public int coachnum;
+        @Param({"100"})
+        public int seatnum;
+        @Param({"10", "16"})
+        public int stationnum;
+
+        TicketingSystem tds;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            tds = Engine.parse(engine).create(routenum, coachnum, seatnum, stationnum, 64);
+            // sell about half of the seats on random trips, the same ones every trial
+            Random random = new Random(0);
+            for (int route = 1; route <= routenum; ++route) {
+                for (int i = coachnum * seatnum / 2; i > 0; --i) {
+                    int departure = random.nextInt(stationnum - 1) + 1;
+                    int arrival = departure + random.nextInt(stationnum - departure) + 1;
+                    tds.buyTicket("passenger" + i, route, departure, arrival);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            if (tds instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) tds).close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final String name = "passenger" + Thread.currentThread().getId();
+        // tickets of the mixed workload, refunded in random order
+        final Ticket[] held = new Ticket[HELD];
+        int count = 0;
+        // trip picked by next
+        int departure;
+        int arrival;
+
+        // pick a random trip and return its route
+        int next(Topology topology) {
+            departure = random.nextInt(topology.stationnum - 1) + 1;
+            arrival = departure + random.nextInt(topology.stationnum - departure) + 1;
+            return random.nextInt(topology.routenum) + 1;
+        }
+    }
+
+    // tickets bought in one batch, refunded after it
+    @State(Scope.Thread)
+    public static class Bought {
+        final Ticket[] tickets = new Ticket[BATCH];
+        int count = 0;
+
+        @TearDown(Level.Iteration)
+        public void refund(Topology topology) {
+            while (count > 0) {
+                topology.tds.refundTicket(tickets[--count]);
+            }
+        }
+    }
+
+    // tickets bought before one batch to be refunded in it
+    @State(Scope.Thread)
+    public static class ToRefund {
+        final Ticket[] tickets = new Ticket[BATCH];
+        int count = 0;
+
+        @Setup(Level.Iteration)
+        public void buy(Topology topology, Client client) {
+            for (int i = 0; i < BATCH; ++i) {
+                Ticket ticket = topology.tds.buyTicket(client.name, client.next(topology), client.departure, client.arrival);
+                if (ticket != null) {
+                    tickets[count++] = ticket;
+                }
+            }
+        }
+
+        // in case the batch was cut short
+        @TearDown(Level.Iteration)
+        public void refund(Topology topology) {
+            while (count > 0) {
+                topology.tds.refundTicket(tickets[--count]);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = BATCH)
+    @Measurement(iterations = 20, batchSize = BATCH)
+    public Ticket buy(Topology topology, Client client, Bought bought) {
+        Ticket ticket = topology.tds.buyTicket(client.name, client.next(topology), client.departure, client.arrival);
+        if (ticket != null && bought.count < BATCH) {
+            bought.tickets[bought.count++] = ticket;
+        }
+        return ticket;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = BATCH)
+    @Measurement(iterations = 20, batchSize = BATCH)
+    public boolean refund(Topology topology, ToRefund stock) {
+        return stock.count > 0 && topology.tds.refundTicket(stock.tickets[--stock.count]);
+    }
+
+    @Benchmark
+    public int inquiry(Topology topology, Client client) {
+        return topology.tds.inquiry(client.next(topology), client.departure, client.arrival);
+    }
+
+    // 20% refunds, 30% buys and 50% inquiries, the mix of TestTask
+    @Benchmark
+    public int mixed(Topology topology, Client client) {
+        int sel = client.random.nextInt(100);
+        if (sel < 20 && client.count > 0) {
+            int i = client.random.nextInt(client.count);
+            Ticket ticket = client.held[i];
+            client.held[i] = client.held[--client.count];
+            return topology.tds.refundTicket(ticket) ? 1 : 0;
+        } else if (sel < 50) {
+            Ticket ticket = topology.tds.buyTicket(client.name, client.next(topology), client.departure, client.arrival);
+            if (ticket == null) {
+                return 0;
+            }
+            if (client.count < HELD) {
+                client.held[client.count++] = ticket;
+            } else {
+                topology.tds.refundTicket(ticket);
+            }
+            return 1;
+        } else {
+            return topology.tds.inquiry(client.next(topology), client.departure, client.arrival);
+        }
+    }
+
+    // one writer selling and refunding against three readers
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public boolean writer(Topology topology, Client client) {
+        Ticket ticket = topology.tds.buyTicket(client.name, client.next(topology), client.departure, client.arrival);
+        return ticket != null && topology.tds.refundTicket(ticket);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public int reader(Topology topology, Client client) {
+        return topology.tds.inquiry(client.next(topology), client.departure, client.arrival);
+    }
+}
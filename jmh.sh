@@ -0,0 +1,24 @@
+#!/bin/sh
+# usage: JMH_CP=<jmh jars> [THREADS="1 2 4"] jmh.sh [benchmark regex] [jmh options]
+#        jmh.sh compare <old revision> <new revision>
+# JMH_CP lists jmh-core, jmh-generator-annprocess, jopt-simple and commons-math3,
+# results go to bench/results/<git revision>/<regex>-t<threads>.csv
+
+if [ "$1" = compare ]; then
+	rm -rf out/compare && mkdir -p out/compare
+	javac -encoding UTF-8 -d out/compare bench/ticketingsystem/JmhCompare.java || exit 1
+	java -cp out/compare ticketingsystem.JmhCompare "bench/results/$2" "bench/results/$3"
+	exit
+fi
+
+: "${JMH_CP:?set JMH_CP to the JMH jars}"
+bench=${1:-TicketingBench}
+[ $# -gt 0 ] && shift
+
+rev=$(git rev-parse --short HEAD 2>/dev/null || echo local)
+git diff --quiet HEAD 2>/dev/null || rev=$rev-dirty
+rm -rf out/bench && mkdir -p out/bench "bench/results/$rev"
+javac -encoding UTF-8 -cp "$JMH_CP" -d out/bench $(find ticketingsystem bench -name "*.java") || exit 1
+for t in ${THREADS:-1 2 4 8 16 32 64}; do
+	java -cp "out/bench:$JMH_CP" org.openjdk.jmh.Main "$bench" -t "$t" -rf csv -rff "bench/results/$rev/$bench-t$t.csv" "$@" || exit 1
+done
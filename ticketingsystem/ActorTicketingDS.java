@@ -0,0 +1,544 @@
+package ticketingsystem;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * single writer engine: every route is owned by one worker thread
+ * buys and refunds are sent to the owner through a bounded lock free
+ * mailbox and applied one after another, so the seat data are plain
+ * arrays without any lock or atomic
+ * inquiries never enter the mailbox, they read the remaining tickets
+ * which the owner publishes with release stores
+ * routes are dealt round robin to Options.actorShards workers, a worker
+ * keeps running on its own routes, so their data stay in its cache
+ * at most 65 stations (64 segments) are supported
+ * blocking calls must not be made from callbacks of the async calls,
+ * since those may run on a worker
+ */
+public class ActorTicketingDS implements TicketingSystem, AutoCloseable {
+    // requests waiting in one mailbox at most, senders back off when full
+    private static final int MAILBOX = 1024;
+    // spin this many times before parking
+    private static final int SPINS = 256;
+
+    private final int routemax;
+    private final int coachmax;
+    private final int seatmax;
+    private final int stationmax;
+
+    private final int tourmax;
+    private final int nomax;
+
+    // shared by all routes
+    private final TourTable table;
+    private final long[] masks;
+    private final int[] departures;
+    private final int[][] collision;
+
+    private final TicketIds tid;
+    private final Route[] routes;
+    private final Worker[] workers;
+
+    public ActorTicketingDS(int routenum, int coachnum, int seatnum, int stationnum, int threadnum) {
+        this(routenum, coachnum, seatnum, stationnum, threadnum, new Options());
+    }
+
+    public ActorTicketingDS(int routenum, int coachnum, int seatnum, int stationnum, int threadnum, Options options) {
+        if (stationnum - 1 > Long.SIZE) {
+            throw new IllegalArgumentException("at most " + (Long.SIZE + 1) + " stations are supported");
+        }
+        routemax = routenum;
+        coachmax = coachnum;
+        seatmax = seatnum;
+        stationmax = stationnum;
+
+        table = TourTable.of(stationmax);
+        tourmax = table.tourmax;
+        masks = table.masks;
+        departures = table.departures;
+        collision = table.collision;
+        // seats are numbered densely, coach by coach
+        nomax = coachmax * seatmax;
+
+        tid = new TicketIds();
+        routes = new Route[routemax + 1];
+        for (int i = 1; i <= routemax; ++i) {
+            routes[i] = new Route();
+        }
+
+        int shards = options.actorShards > 0 ? options.actorShards
+                : Math.max(Runtime.getRuntime().availableProcessors(), 1);
+        workers = new Worker[Math.min(shards, routemax)];
+        for (int i = 0; i < workers.length; ++i) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+    }
+
+    public Ticket buyTicket(String passenger, int route, int departure, int arrival) {
+        Request request = buyRequest(passenger, route, departure, arrival, null);
+        if (request == null) return null;
+        return await(request) ? request.ticket : null;
+    }
+
+    /**
+     * seat a party in one coach, all or nothing
+     * the whole party is one request, so the owner picks and marks all
+     * seats in one step and publishes each tour's count once
+     * @return tickets in the order of passengers, null if the party can not be seated
+     */
+    @Override
+    public Ticket[] buyTickets(String[] passengers, int route, int departure, int arrival, boolean adjacent) {
+        if (passengers == null || passengers.length == 0 || passengers.length > seatmax) return null;
+        for (String passenger : passengers) {
+            if (passenger == null) return null;
+        }
+        if (route <= 0 || route > routemax) return null;
+        if (departure <= 0 || departure > stationmax) return null;
+        if (arrival <= 0 || arrival > stationmax) return null;
+        if (departure >= arrival) return null;
+
+        Ticket[] party = new Ticket[passengers.length];
+        for (int i = 0; i < party.length; ++i) {
+            party[i] = new Ticket();
+            party[i].passenger = passengers[i];
+            party[i].route = route;
+            party[i].departure = departure;
+            party[i].arrival = arrival;
+        }
+        Request request = new Request(party, adjacent, table.hash(departure, arrival));
+        owner(route).send(request);
+        return await(request) ? party : null;
+    }
+
+    public int inquiry(int route, int departure, int arrival) {
+        if (route <= 0 || route > routemax) return -1;
+        if (departure <= 0 || departure > stationmax) return -1;
+        if (arrival <= 0 || arrival > stationmax) return -1;
+        if (departure >= arrival) return -1;
+
+        return routes[route].rests.get(table.hash(departure, arrival));
+    }
+
+    public boolean inquiryAll(int route, int[] counts) {
+        if (route <= 0 || route > routemax) return false;
+        if (counts == null || counts.length < tourmax) return false;
+
+        AtomicIntegerArray rests = routes[route].rests;
+        for (int tour = 1; tour <= tourmax; ++tour) {
+            counts[tour - 1] = rests.get(tour);
+        }
+        return true;
+    }
+
+    public boolean refundTicket(Ticket ticket) {
+        Request request = refundRequest(ticket, null);
+        if (request == null) return false;
+        return await(request);
+    }
+
+    /**
+     * @return completed with the ticket, or with null when sold out or illegal
+     */
+    public CompletableFuture<Ticket> buyTicketAsync(String passenger, int route, int departure, int arrival) {
+        CompletableFuture<Ticket> future = new CompletableFuture<>();
+        if (buyRequest(passenger, route, departure, arrival, future) == null) {
+            future.complete(null);
+        }
+        return future;
+    }
+
+    /**
+     * inquiries never wait for the owner, the future is already completed
+     */
+    public CompletableFuture<Integer> inquiryAsync(int route, int departure, int arrival) {
+        return CompletableFuture.completedFuture(inquiry(route, departure, arrival));
+    }
+
+    /**
+     * @return completed with true when refunded
+     */
+    public CompletableFuture<Boolean> refundTicketAsync(Ticket ticket) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        if (refundRequest(ticket, future) == null) {
+            future.complete(false);
+        }
+        return future;
+    }
+
+    /**
+     * stop the workers, requests still in the mailboxes are dropped
+     */
+    public void close() {
+        for (Worker worker : workers) {
+            worker.running = false;
+            LockSupport.unpark(worker);
+        }
+    }
+
+    // validate and send a buy, null for illegal arguments
+    private Request buyRequest(String passenger, int route, int departure, int arrival, CompletableFuture<?> future) {
+        if (passenger == null) return null;
+        if (route <= 0 || route > routemax) return null;
+        if (departure <= 0 || departure > stationmax) return null;
+        if (arrival <= 0 || arrival > stationmax) return null;
+        if (departure >= arrival) return null;
+
+        Ticket ticket = new Ticket();
+        ticket.passenger = passenger;
+        ticket.route = route;
+        ticket.departure = departure;
+        ticket.arrival = arrival;
+        Request request = new Request(Request.BUY, ticket, table.hash(departure, arrival), future);
+        owner(route).send(request);
+        return request;
+    }
+
+    // validate and send a refund, null for illegal arguments
+    private Request refundRequest(Ticket ticket, CompletableFuture<?> future) {
+        if (ticket == null || ticket.passenger == null) return null;
+        if (ticket.route <= 0 || ticket.route > routemax) return null;
+        if (ticket.departure <= 0 || ticket.departure > stationmax) return null;
+        if (ticket.arrival <= 0 || ticket.arrival > stationmax) return null;
+        if (ticket.departure >= ticket.arrival) return null;
+        if (ticket.coach <= 0 || ticket.coach > coachmax) return null;
+        if (ticket.seat <= 0 || ticket.seat > seatmax) return null;
+
+        Request request = new Request(Request.REFUND, ticket, table.hash(ticket.departure, ticket.arrival), future);
+        owner(ticket.route).send(request);
+        return request;
+    }
+
+    private Worker owner(int route) {
+        return workers[(route - 1) % workers.length];
+    }
+
+    // wait for the owner to apply a blocking request
+    private static boolean await(Request request) {
+        for (int spin = 0; !request.done; ++spin) {
+            if (spin < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.park(request);
+            }
+        }
+        return request.ok;
+    }
+
+    /**
+     * one buy, refund or party on its way to the owner
+     */
+    private static final class Request {
+        static final int BUY = 0;
+        static final int REFUND = 1;
+        static final int GROUP = 2;
+
+        final int op;
+        // the first ticket of a party
+        final Ticket ticket;
+        // null unless GROUP
+        final Ticket[] party;
+        final boolean adjacent;
+        final int tourid;
+        // null for blocking requests
+        final CompletableFuture<?> future;
+        final Thread waiter;
+
+        // written by the owner and handed back by done
+        boolean ok;
+        volatile boolean done;
+
+        Request(int op, Ticket ticket, int tourid, CompletableFuture<?> future) {
+            this.op = op;
+            this.ticket = ticket;
+            this.party = null;
+            this.adjacent = false;
+            this.tourid = tourid;
+            this.future = future;
+            this.waiter = future == null ? Thread.currentThread() : null;
+        }
+
+        // a blocking party
+        Request(Ticket[] party, boolean adjacent, int tourid) {
+            this.op = GROUP;
+            this.ticket = party[0];
+            this.party = party;
+            this.adjacent = adjacent;
+            this.tourid = tourid;
+            this.future = null;
+            this.waiter = Thread.currentThread();
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete() {
+            if (future == null) {
+                done = true;
+                LockSupport.unpark(waiter);
+            } else if (op == BUY) {
+                ((CompletableFuture<Ticket>) future).complete(ok ? ticket : null);
+            } else {
+                ((CompletableFuture<Boolean>) future).complete(ok);
+            }
+        }
+    }
+
+    /**
+     * bounded multi producer single consumer queue
+     * each cell carries a sequence: a producer claims a position by CAS on
+     * the tail and publishes its cell by the sequence, the owner takes
+     * cells in order without any CAS
+     */
+    private static final class Mailbox {
+        private final int mask;
+        private final AtomicLongArray sequences;
+        // handed over by the sequences
+        private final Request[] requests;
+        private final AtomicLong tail = new AtomicLong(0);
+        // only used by the owner
+        private long head = 0;
+
+        Mailbox(int capacity) {
+            mask = capacity - 1;
+            sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; ++i) {
+                sequences.set(i, i);
+            }
+            requests = new Request[capacity];
+        }
+
+        /**
+         * @return false when full
+         */
+        boolean offer(Request request) {
+            long pos = tail.get();
+            for (;;) {
+                int i = (int) pos & mask;
+                long diff = sequences.get(i) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        requests[i] = request;
+                        sequences.set(i, pos + 1);
+                        return true;
+                    }
+                    pos = tail.get();
+                } else if (diff < 0) {
+                    // the owner has not taken this cell of the last round yet
+                    return false;
+                } else {
+                    pos = tail.get();
+                }
+            }
+        }
+
+        /**
+         * @return the oldest request, null when empty
+         */
+        Request poll() {
+            int i = (int) head & mask;
+            if (sequences.get(i) != head + 1) return null;
+            Request request = requests[i];
+            requests[i] = null;
+            sequences.set(i, head + mask + 1);
+            ++head;
+            return request;
+        }
+
+        boolean isEmpty() {
+            return sequences.get((int) head & mask) != head + 1;
+        }
+    }
+
+    /**
+     * owner of the routes (index + 1), (index + 1 + workers), ...
+     */
+    private final class Worker extends Thread {
+        private final Mailbox mailbox = new Mailbox(MAILBOX);
+        private volatile boolean parked = false;
+        private volatile boolean running = true;
+
+        Worker(int index) {
+            super("route-actor-" + index);
+            setDaemon(true);
+        }
+
+        void send(Request request) {
+            while (!mailbox.offer(request)) {
+                // full, let the owner catch up
+                Thread.yield();
+            }
+            if (parked) {
+                LockSupport.unpark(this);
+            }
+        }
+
+        public void run() {
+            int idle = 0;
+            while (running) {
+                Request request = mailbox.poll();
+                if (request != null) {
+                    Route route = routes[request.ticket.route];
+                    if (request.op == Request.BUY) {
+                        request.ok = route.buy(request.tourid, request.ticket);
+                    } else if (request.op == Request.GROUP) {
+                        request.ok = route.buyGroup(request.tourid, request.party, request.adjacent);
+                    } else {
+                        request.ok = route.refund(request.tourid, request.ticket);
+                    }
+                    request.complete();
+                    idle = 0;
+                } else if (++idle < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    parked = true;
+                    // a sender which missed the flag has already published its request
+                    if (mailbox.isEmpty() && running) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                    idle = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * seats and tickets of one route, only touched by its owner
+     */
+    private final class Route {
+        // segment bits sold on each seat
+        private final long[] seats = new long[nomax + 1];
+        // ticket starting at each (seat, departure)
+        private final long[] tids = new long[nomax * (stationmax - 1)];
+        private final int[] tours = new int[nomax * (stationmax - 1)];
+        private final String[] names = new String[nomax * (stationmax - 1)];
+        // seat to go on from for each tour
+        private final int[] cursors = new int[tourmax + 1];
+        // remaining tickets of each tour, the owner's copy and the published one
+        private final int[] counts = new int[tourmax + 1];
+        private final AtomicIntegerArray rests = new AtomicIntegerArray(tourmax + 1);
+
+        Route() {
+            for (int tour = 1; tour <= tourmax; ++tour) {
+                publish(tour, nomax);
+            }
+        }
+
+        private void publish(int tour, int count) {
+            counts[tour] = count;
+            rests.lazySet(tour, count);
+        }
+
+        private int slot(int no, int departure) {
+            return (no - 1) * (stationmax - 1) + departure - 1;
+        }
+
+        // next fit from the tour's cursor
+        boolean buy(int tourid, Ticket ticket) {
+            if (counts[tourid] == 0) return false;
+            long mask = masks[tourid];
+            int start = cursors[tourid];
+            for (int i = 0; i < nomax; ++i) {
+                int no = (start + i) % nomax + 1;
+                long old = seats[no];
+                if ((old & mask) != 0) continue;
+
+                seats[no] = old | mask;
+                for (int tour : collision[tourid]) {
+                    // tours which were free on this seat are not any more
+                    if ((old & masks[tour]) == 0) {
+                        publish(tour, counts[tour] - 1);
+                    }
+                }
+                cursors[tourid] = no % nomax;
+
+                int slot = slot(no, departures[tourid]);
+                long ticketId = tid.next();
+                tids[slot] = ticketId;
+                tours[slot] = tourid;
+                names[slot] = ticket.passenger;
+                ticket.tid = ticketId;
+                ticket.coach = (no - 1) / seatmax + 1;
+                ticket.seat = (no - 1) % seatmax + 1;
+                return true;
+            }
+            return false;
+        }
+
+        // first coach from the tour's cursor which takes the whole party
+        boolean buyGroup(int tourid, Ticket[] party, boolean adjacent) {
+            int n = party.length;
+            if (counts[tourid] < n) return false;
+            long mask = masks[tourid];
+            int[] nos = new int[n];
+            int first = cursors[tourid] / seatmax;
+            for (int c = 0; c < coachmax; ++c) {
+                int coach = (first + c) % coachmax;
+                int size = 0;
+                for (int seat = 0; seat < seatmax && size < n; ++seat) {
+                    if (seatmax - seat < n - size) {
+                        break; // not enough seats left in this coach
+                    }
+                    int no = coach * seatmax + seat + 1;
+                    if ((seats[no] & mask) == 0) {
+                        nos[size++] = no;
+                    } else if (adjacent) {
+                        // the run is broken, start over after this seat
+                        size = 0;
+                    }
+                }
+                if (size < n) continue;
+
+                for (int i = 0; i < n; ++i) {
+                    int no = nos[i];
+                    long old = seats[no];
+                    seats[no] = old | mask;
+                    for (int tour : collision[tourid]) {
+                        if ((old & masks[tour]) == 0) {
+                            --counts[tour];
+                        }
+                    }
+                    int slot = slot(no, departures[tourid]);
+                    long ticketId = tid.next();
+                    tids[slot] = ticketId;
+                    tours[slot] = tourid;
+                    names[slot] = party[i].passenger;
+                    party[i].tid = ticketId;
+                    party[i].coach = coach + 1;
+                    party[i].seat = (no - 1) % seatmax + 1;
+                }
+                // each tour's count drops by the whole party at once
+                for (int tour : collision[tourid]) {
+                    rests.lazySet(tour, counts[tour]);
+                }
+                return true;
+            }
+            return false;
+        }
+
+        boolean refund(int tourid, Ticket ticket) {
+            int no = (ticket.coach - 1) * seatmax + ticket.seat;
+            int slot = slot(no, ticket.departure);
+            // ticket info does not match
+            if (ticket.tid <= 0 || tids[slot] != ticket.tid || tours[slot] != tourid) return false;
+            if (!Objects.equals(names[slot], ticket.passenger)) return false;
+
+            tids[slot] = 0;
+            tours[slot] = 0;
+            names[slot] = null;
+            long after = seats[no] & ~masks[tourid];
+            seats[no] = after;
+            for (int tour : collision[tourid]) {
+                // tours which are free again on this seat
+                if ((after & masks[tour]) == 0) {
+                    publish(tour, counts[tour] + 1);
+                }
+            }
+            return true;
+        }
+    }
+}
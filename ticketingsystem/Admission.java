@@ -0,0 +1,146 @@
+package ticketingsystem;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * admission control in front of each TicketingDS operation
+ * enter() hands out a token which must be given back to exit(),
+ * a negative token means the call was shed and fails at once
+ */
+public interface Admission {
+    /**
+     * wait for admission to the route
+     * @param route route of the operation
+     * @return token for exit(), negative if the call was shed
+     */
+    long enter(int route) throws InterruptedException;
+
+    /**
+     * leave the route after the operation
+     * @param route route of the operation
+     * @param token value returned by enter()
+     */
+    void exit(int route, long token);
+
+    // no gate at all, the default for the hot path
+    Admission NONE = new None();
+
+    class None implements Admission {
+        public long enter(int route) {
+            return 0;
+        }
+
+        public void exit(int route, long token) {
+        }
+    }
+
+    /**
+     * at most permits operations run on each route at the same time,
+     * the others wait for a window of their own route
+     */
+    class PerRoute implements Admission {
+        private final Semaphore[] windows;
+
+        public PerRoute(int routenum, int permits) {
+            windows = new Semaphore[routenum + 1];
+            for (int i = 1; i <= routenum; ++i) {
+                windows[i] = new Semaphore(permits);
+            }
+        }
+
+        public long enter(int route) throws InterruptedException {
+            windows[route].acquire();
+            return 0;
+        }
+
+        public void exit(int route, long token) {
+            windows[route].release();
+        }
+    }
+
+    /**
+     * per route limit driven by the route's latency
+     * the limit shrinks by one for each operation slower than the target
+     * and grows back by one for each faster operation,
+     * calls over the limit queue up to queueNanos and are shed afterwards
+     * (queueNanos = 0 sheds at once)
+     */
+    class Adaptive implements Admission {
+        private final int minLimit;
+        private final int maxLimit;
+        private final long targetNanos;
+        private final long queueNanos;
+        // tokens are nanoTime() from here on, System.nanoTime() itself
+        // may be negative and would read as shed
+        private final long origin = System.nanoTime();
+
+        private final AtomicIntegerArray inflight;
+        private final AtomicIntegerArray limits;
+        // smoothed latency of each route
+        private final AtomicLongArray latency;
+
+        public Adaptive(int routenum, int minLimit, int maxLimit, long targetNanos, long queueNanos) {
+            this.minLimit = Math.max(minLimit, 1);
+            this.maxLimit = Math.max(maxLimit, this.minLimit);
+            this.targetNanos = targetNanos;
+            this.queueNanos = queueNanos;
+            inflight = new AtomicIntegerArray(routenum + 1);
+            limits = new AtomicIntegerArray(routenum + 1);
+            latency = new AtomicLongArray(routenum + 1);
+            for (int i = 1; i <= routenum; ++i) {
+                limits.set(i, this.maxLimit);
+            }
+        }
+
+        public long enter(int route) throws InterruptedException {
+            boolean queued = false;
+            long deadline = 0;
+            while (true) {
+                int n = inflight.get(route);
+                if (n < limits.get(route)) {
+                    if (inflight.compareAndSet(route, n, n + 1)) {
+                        return System.nanoTime() - origin;
+                    }
+                    continue;
+                }
+                // over the limit, queue for a while or shed
+                long now = System.nanoTime();
+                if (!queued) {
+                    queued = true;
+                    deadline = now + queueNanos;
+                }
+                if (now - deadline >= 0) {
+                    return -1;
+                }
+                LockSupport.parkNanos(Math.min(deadline - now, 10_000));
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+
+        public void exit(int route, long token) {
+            inflight.decrementAndGet(route);
+            long elapsed = System.nanoTime() - origin - token;
+            long avg = latency.get(route);
+            // racy but bounded, a lost update only delays the adaption
+            avg += (elapsed - avg) >> 3;
+            latency.set(route, avg);
+
+            int limit = limits.get(route);
+            if (avg > targetNanos) {
+                if (limit > minLimit) limits.compareAndSet(route, limit, limit - 1);
+            } else {
+                if (limit < maxLimit) limits.compareAndSet(route, limit, limit + 1);
+            }
+        }
+
+        // current limit of the route
+        public int limit(int route) {
+            return limits.get(route);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ticketingsystem;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+/**
+ * measure bytes allocated per operation on the allocation free path of TicketingDS
+ * buys into reusable tickets, refunds them and inquires in a steady loop
+ * and exits with status 1 when anything is allocated after the warm up
+ * the warm up first sells every segment of every seat once, so the per seat
+ * ticket registries have grown to their final size before measuring
+ */
+public class AllocationCheck {
+    final static int routenum = 20;
+    final static int coachnum = 10;
+    final static int seatnum = 100;
+    final static int stationnum = 16;
+
+    final static int warmup = 2_000_000;
+    final static int measured = 2_000_000;
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!bean.isThreadAllocatedMemorySupported()) {
+            System.out.println("thread allocation counting is not supported");
+            return;
+        }
+        bean.setThreadAllocatedMemoryEnabled(true);
+
+        TicketingDS tds = new TicketingDS(routenum, coachnum, seatnum, stationnum, 1);
+        String[] names = new String[1000];
+        for (int i = 0; i < names.length; ++i) {
+            names[i] = "passenger" + i;
+        }
+        // half of the seats are sold at most, the rest keeps the counters moving
+        Ticket[] pool = new Ticket[routenum * coachnum * seatnum / 2];
+        for (int i = 0; i < pool.length; ++i) {
+            pool[i] = new Ticket();
+        }
+        boolean[] sold = new boolean[pool.length];
+
+        ArrayList<Ticket> full = new ArrayList<>();
+        for (int route = 1; route <= routenum; ++route) {
+            for (int departure = 1; departure < stationnum; ++departure) {
+                Ticket ticket;
+                while ((ticket = tds.buyTicket(names[0], route, departure, departure + 1)) != null) {
+                    full.add(ticket);
+                }
+            }
+        }
+        for (Ticket ticket : full) {
+            tds.refundTicket(ticket);
+        }
+        full = null;
+
+        long seed = 42;
+        long threadId = Thread.currentThread().getId();
+        long before = 0;
+        for (int i = 0; i < warmup + measured; ++i) {
+            if (i == warmup) {
+                before = bean.getThreadAllocatedBytes(threadId);
+            }
+            // xorshift keeps the harness itself allocation free
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            int sel = (int) ((seed >>> 1) % 100);
+            int k = (int) ((seed >>> 8) % pool.length);
+            int route = (int) ((seed >>> 20) % routenum) + 1;
+            int departure = (int) ((seed >>> 28) % (stationnum - 1)) + 1;
+            int arrival = departure + (int) ((seed >>> 36) % (stationnum - departure)) + 1;
+            if (sel < 30) {
+                if (sold[k]) {
+                    sold[k] = !tds.refundTicket(pool[k]);
+                } else {
+                    sold[k] = tds.buyTicket(pool[k], names[k % names.length], route, departure, arrival);
+                }
+            } else {
+                tds.inquiry(route, departure, arrival);
+            }
+        }
+        long bytes = bean.getThreadAllocatedBytes(threadId) - before;
+
+        System.out.println("allocated " + bytes + " bytes in " + measured + " operations, "
+                + String.format("%.4f", (double) bytes / measured) + " bytes/op");
+        if (bytes > 0) {
+            System.exit(1);
+        }
+    }
+}
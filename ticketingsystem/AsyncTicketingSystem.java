@@ -0,0 +1,100 @@
+package ticketingsystem;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * asynchronous facade of a ticketing engine for I/O bound callers
+ * every call runs on the executor and completes a CompletableFuture,
+ * so a request handler never blocks its own thread on a seat lock or
+ * on the admission gate
+ * the default executor starts one virtual thread per call where the
+ * runtime has them (Java 21 and later), otherwise a pool of platform
+ * threads sized to the cores
+ * the engines only block in ReentrantLock, Semaphore and LockSupport,
+ * never while holding a monitor, so virtual threads do not pin their
+ * carriers; PinningCheck records that with JFR on Java 21
+ */
+public class AsyncTicketingSystem implements AutoCloseable {
+    private final TicketingSystem tds;
+    private final Executor executor;
+    // shut down on close, null when the executor belongs to the caller
+    private final ExecutorService owned;
+
+    /**
+     * run on virtual threads if available
+     */
+    public AsyncTicketingSystem(TicketingSystem tds) {
+        this.tds = tds;
+        this.owned = defaultExecutor();
+        this.executor = owned;
+    }
+
+    /**
+     * run on the caller's executor, which is left open on close
+     */
+    public AsyncTicketingSystem(TicketingSystem tds, Executor executor) {
+        this.tds = tds;
+        this.owned = null;
+        this.executor = executor;
+    }
+
+    /**
+     * @return a new virtual thread per task executor, or a platform pool before Java 21
+     */
+    public static ExecutorService defaultExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    /**
+     * @return true if this runtime can start virtual threads
+     */
+    public static boolean virtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return completed with the ticket, or with null when sold out
+     */
+    public CompletableFuture<Ticket> buyTicketAsync(String passenger, int route, int departure, int arrival) {
+        return CompletableFuture.supplyAsync(() -> tds.buyTicket(passenger, route, departure, arrival), executor);
+    }
+
+    /**
+     * @return completed with the remaining tickets, -1 for illegal arguments
+     */
+    public CompletableFuture<Integer> inquiryAsync(int route, int departure, int arrival) {
+        return CompletableFuture.supplyAsync(() -> tds.inquiry(route, departure, arrival), executor);
+    }
+
+    /**
+     * @return completed with true when refunded
+     */
+    public CompletableFuture<Boolean> refundTicketAsync(Ticket ticket) {
+        return CompletableFuture.supplyAsync(() -> tds.refundTicket(ticket), executor);
+    }
+
+    // the wrapped engine for synchronous calls
+    public TicketingSystem system() {
+        return tds;
+    }
+
+    public void close() {
+        if (owned != null) {
+            owned.shutdown();
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package ticketingsystem;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+class BenchCase {
+	int testnum;
+	int threadnum;
+	int routenum;
+	int coachnum;
+	int seatnum;
+	int stationnum;
+	int retpc = 20; // return ticket operations below this percent
+	int buypc = 50; // buy ticket operations below this percent, inquiries for the rest
+	int clients = 0; // concurrent clients of the async facade instead of threadnum threads
+	int hotpc = 0; // buys and inquiries below this percent go to route 1 from station 1
+	int sample = 0; // time every sample-th operation for the p99 latency
+
+	public String toString() {
+		return "testnum=" + testnum
+				+ " threadnum=" + threadnum
+				+ " routenum=" + routenum
+				+ " coachnum=" + coachnum
+				+ " seatnum=" + seatnum
+				+ " stationnum=" + stationnum
+				+ " retpc=" + retpc
+				+ " buypc=" + buypc
+				+ (clients > 0 ? " clients=" + clients : "")
+				+ (hotpc > 0 ? " hotpc=" + hotpc : "")
+				+ (sample > 0 ? " sample=" + sample : "");
+	}
+}
+
+class BenchTask implements Runnable {
+	private final TicketingSystem tds;
+	private final BenchCase bench;
+	private final String[] names;
+	private final long seed;
+	// latencies of the timed operations in ns
+	final long[] samples;
+	int sampled = 0;
+
+	public BenchTask(TicketingSystem tds, BenchCase bench, String[] names, long seed) {
+		this.tds = tds;
+		this.bench = bench;
+		this.names = names;
+		this.seed = seed;
+		this.samples = new long[bench.sample > 0 ? bench.testnum / bench.threadnum / bench.sample + 1 : 0];
+	}
+
+	public void run() {
+		Random rand = new Random(seed);
+		ArrayList<Ticket> soldTicket = new ArrayList<>();
+		int eachnum = bench.testnum / bench.threadnum;
+		int routenum = bench.routenum;
+		int stationnum = bench.stationnum;
+
+		for (int i = 0; i < eachnum; i++) {
+			boolean timed = bench.sample > 0 && i % bench.sample == 0;
+			long preTime = timed ? System.nanoTime() : 0;
+			int sel = rand.nextInt(100);
+			if (sel < bench.retpc && soldTicket.size() > 0) { // return ticket
+				int select = rand.nextInt(soldTicket.size());
+				// swap the last one in to avoid shifting the list
+				Ticket ticket = soldTicket.get(select);
+				soldTicket.set(select, soldTicket.get(soldTicket.size() - 1));
+				soldTicket.remove(soldTicket.size() - 1);
+				tds.refundTicket(ticket);
+			} else if (bench.retpc <= sel && sel < bench.buypc) { // buy ticket
+				String passenger = names[rand.nextInt(names.length)];
+				boolean hot = bench.hotpc > 0 && rand.nextInt(100) < bench.hotpc;
+				int route = hot ? 1 : rand.nextInt(routenum) + 1;
+				int departure = hot ? 1 : rand.nextInt(stationnum - 1) + 1;
+				int arrival = departure + rand.nextInt(stationnum - departure) + 1;
+				Ticket ticket = tds.buyTicket(passenger, route, departure, arrival);
+				if (ticket != null) {
+					soldTicket.add(ticket);
+				}
+			} else { // inquiry ticket
+				boolean hot = bench.hotpc > 0 && rand.nextInt(100) < bench.hotpc;
+				int route = hot ? 1 : rand.nextInt(routenum) + 1;
+				int departure = hot ? 1 : rand.nextInt(stationnum - 1) + 1;
+				int arrival = departure + rand.nextInt(stationnum - departure) + 1;
+				tds.inquiry(route, departure, arrival);
+			}
+			if (timed) {
+				samples[sampled++] = System.nanoTime() - preTime;
+			}
+		}
+	}
+}
+
+/**
+ * one client of the async facade
+ * each operation is issued when the previous one has completed,
+ * so a client holds no thread while it waits
+ */
+class AsyncBenchClient {
+	private final AsyncTicketingSystem async;
+	private final BenchCase bench;
+	private final String[] names;
+	private final Random rand;
+	private final ArrayList<Ticket> soldTicket = new ArrayList<>();
+	private int left;
+
+	public AsyncBenchClient(AsyncTicketingSystem async, BenchCase bench, String[] names, long seed, int opnum) {
+		this.async = async;
+		this.bench = bench;
+		this.names = names;
+		this.rand = new Random(seed);
+		this.left = opnum;
+	}
+
+	public CompletableFuture<Void> next() {
+		if (left-- == 0) {
+			return CompletableFuture.completedFuture(null);
+		}
+		int routenum = bench.routenum;
+		int stationnum = bench.stationnum;
+		CompletableFuture<?> op;
+		int sel = rand.nextInt(100);
+		if (sel < bench.retpc && soldTicket.size() > 0) { // return ticket
+			int select = rand.nextInt(soldTicket.size());
+			Ticket ticket = soldTicket.get(select);
+			soldTicket.set(select, soldTicket.get(soldTicket.size() - 1));
+			soldTicket.remove(soldTicket.size() - 1);
+			op = async.refundTicketAsync(ticket);
+		} else if (bench.retpc <= sel && sel < bench.buypc) { // buy ticket
+			String passenger = names[rand.nextInt(names.length)];
+			int route = rand.nextInt(routenum) + 1;
+			int departure = rand.nextInt(stationnum - 1) + 1;
+			int arrival = departure + rand.nextInt(stationnum - departure) + 1;
+			op = async.buyTicketAsync(passenger, route, departure, arrival).thenAccept(ticket -> {
+				if (ticket != null) {
+					soldTicket.add(ticket);
+				}
+			});
+		} else { // inquiry ticket
+			int route = rand.nextInt(routenum) + 1;
+			int departure = rand.nextInt(stationnum - 1) + 1;
+			int arrival = departure + rand.nextInt(stationnum - departure) + 1;
+			op = async.inquiryAsync(route, departure, arrival);
+		}
+		return op.thenCompose(done -> next());
+	}
+}
+
+/**
+ * throughput comparison of the ticketing engines
+ * the harness pre-builds passenger names and skips the trace,
+ * so only the engine is measured
+ * results are printed in the layout of data/1020.txt and data/2030.txt
+ * a case with clients=N drives the engine through AsyncTicketingSystem
+ * with N concurrent clients on virtual threads; before Java 21 such a case
+ * is skipped, a platform pool of a few threads would not run N clients
+ * at once, see PinningCheck for whether the clients pin their carriers
+ * a case with hotpc=P sends P percent of buys and inquiries to route 1
+ * from station 1, the skewed load of a popular train
+ * a case with sample=N times every N-th operation and prints the p99 latency
+ * with -Dticketingsystem.latency=true TicketingDS engines also print the
+ * percentiles of each operation and phase of their last repeat
+ */
+public class Benchmark {
+	final static String benchfile = "bench.txt";
+	static Integer repeat = null;
+	static List<Engine> engines = null;
+	static List<BenchCase> cases = null;
+	// p99 latency of the last sampled run in ns
+	static long p99 = 0;
+	// histograms of the last run with -Dticketingsystem.latency=true
+	static Latency.Snapshot latency = null;
+
+	/**
+	 * import params in bench file, "bench.txt" by default
+	 * repeat=N
+	 * engine=locked,lockfree
+	 * testnum=.. threadnum=.. routenum=.. coachnum=.. seatnum=.. stationnum=.. [retpc=.. buypc=.. clients=.. hotpc=.. sample=..]
+	 * @param filename bench file
+	 * @return be true when imported correctly
+	 */
+	private static boolean importBenchFile(String filename) {
+		engines = new ArrayList<>();
+		cases = new ArrayList<>();
+
+		File file = new File(filename);
+		if (file.isFile() && file.exists()) {
+			try {
+				BufferedReader reader = new BufferedReader(new FileReader(file));
+				String line = null;
+				while ((line = reader.readLine()) != null) {
+					if (line.startsWith("repeat=")) {
+						repeat = Integer.valueOf(line.substring("repeat=".length()).trim());
+					} else if (line.startsWith("engine=")) {
+						for (String name : line.substring("engine=".length()).split(",")) {
+							Engine engine = Engine.parse(name);
+							if (engine == null) {
+								System.out.println("unknown engine " + name);
+								continue;
+							}
+							engines.add(engine);
+						}
+					} else if (line.startsWith("testnum=")) {
+						BenchCase bench = new BenchCase();
+						for (String p : line.split(" ")) {
+							if (p.startsWith("testnum=")) {
+								bench.testnum = Integer.parseInt(p.substring("testnum=".length()));
+							} else if (p.startsWith("threadnum=")) {
+								bench.threadnum = Integer.parseInt(p.substring("threadnum=".length()));
+							} else if (p.startsWith("routenum=")) {
+								bench.routenum = Integer.parseInt(p.substring("routenum=".length()));
+							} else if (p.startsWith("coachnum=")) {
+								bench.coachnum = Integer.parseInt(p.substring("coachnum=".length()));
+							} else if (p.startsWith("seatnum=")) {
+								bench.seatnum = Integer.parseInt(p.substring("seatnum=".length()));
+							} else if (p.startsWith("stationnum=")) {
+								bench.stationnum = Integer.parseInt(p.substring("stationnum=".length()));
+							} else if (p.startsWith("retpc=")) {
+								bench.retpc = Integer.parseInt(p.substring("retpc=".length()));
+							} else if (p.startsWith("buypc=")) {
+								bench.buypc = Integer.parseInt(p.substring("buypc=".length()));
+							} else if (p.startsWith("sample=")) {
+								bench.sample = Integer.parseInt(p.substring("sample=".length()));
+							} else if (p.startsWith("hotpc=")) {
+								bench.hotpc = Integer.parseInt(p.substring("hotpc=".length()));
+							} else if (p.startsWith("clients=")) {
+								bench.clients = Integer.parseInt(p.substring("clients=".length()));
+							}
+						}
+						if (bench.testnum <= 0 || bench.threadnum <= 0 || bench.routenum <= 0
+								|| bench.coachnum <= 0 || bench.seatnum <= 0 || bench.stationnum <= 1) {
+							continue;
+						}
+						cases.add(bench);
+					}
+				}
+				reader.close();
+				if (repeat == null) repeat = 1;
+				if (engines.isEmpty()) engines.addAll(Arrays.asList(Engine.values()));
+				return true;
+			} catch (Exception e) {
+				e.printStackTrace();
+				return false;
+			}
+		} else {
+			System.out.println(filename + " not found");
+			return false;
+		}
+	}
+
+	/**
+	 * run one repeat of the case on a fresh engine
+	 * @return past time in ns
+	 */
+	static long run(Engine engine, BenchCase bench, String[] names, int r) throws InterruptedException {
+		TicketingSystem tds = engine.create(
+				bench.routenum,
+				bench.coachnum,
+				bench.seatnum,
+				bench.stationnum,
+				bench.threadnum
+		);
+		try {
+			if (bench.clients > 0) {
+				return runClients(tds, bench, names, r);
+			}
+			return runThreads(tds, bench, names, r);
+		} finally {
+			if (tds instanceof TicketingDS) {
+				latency = ((TicketingDS) tds).latency();
+			}
+			if (tds instanceof AutoCloseable) {
+				try {
+					((AutoCloseable) tds).close();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * run one repeat of the case with threadnum threads
+	 * @return past time in ns
+	 */
+	static long runThreads(TicketingSystem tds, BenchCase bench, String[] names, int r) throws InterruptedException {
+		Thread[] threads = new Thread[bench.threadnum];
+		BenchTask[] tasks = new BenchTask[bench.threadnum];
+		for (int t = 0; t < bench.threadnum; ++t) {
+			tasks[t] = new BenchTask(tds, bench, names, 31L * r + t);
+			threads[t] = new Thread(tasks[t]);
+		}
+
+		long startTime = System.nanoTime();
+		for (int t = 0; t < bench.threadnum; ++t) {
+			threads[t].start();
+		}
+		for (int t = 0; t < bench.threadnum; ++t) {
+			threads[t].join();
+		}
+		long past = System.nanoTime() - startTime;
+
+		if (bench.sample > 0) {
+			int total = 0;
+			for (BenchTask task : tasks) {
+				total += task.sampled;
+			}
+			long[] all = new long[total];
+			int size = 0;
+			for (BenchTask task : tasks) {
+				System.arraycopy(task.samples, 0, all, size, task.sampled);
+				size += task.sampled;
+			}
+			Arrays.sort(all);
+			p99 = total > 0 ? all[Math.min((int) (total * 0.99), total - 1)] : 0;
+		}
+		return past;
+	}
+
+	/**
+	 * run one repeat of the case with async clients
+	 * @return past time in ns
+	 */
+	static long runClients(TicketingSystem tds, BenchCase bench, String[] names, int r) {
+		try (AsyncTicketingSystem async = new AsyncTicketingSystem(tds)) {
+			int opnum = Math.max(bench.testnum / bench.clients, 1);
+			AsyncBenchClient[] clients = new AsyncBenchClient[bench.clients];
+			for (int c = 0; c < bench.clients; ++c) {
+				clients[c] = new AsyncBenchClient(async, bench, names, 31L * r + c, opnum);
+			}
+			CompletableFuture<?>[] done = new CompletableFuture<?>[bench.clients];
+
+			long startTime = System.nanoTime();
+			for (int c = 0; c < bench.clients; ++c) {
+				done[c] = clients[c].next();
+			}
+			CompletableFuture.allOf(done).join();
+			return System.nanoTime() - startTime;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		if (!importBenchFile(args.length > 0 ? args[0] : benchfile)) return;
+		for (BenchCase bench : cases) {
+			if (bench.clients > 0 && !AsyncTicketingSystem.virtualThreads()) {
+				System.out.println("skipped " + bench + ": " + bench.clients + " clients need virtual threads"
+						+ " (Java 21), this is " + Runtime.version() + " with a pool of "
+						+ Runtime.getRuntime().availableProcessors() + " platform threads");
+				System.out.println();
+				continue;
+			}
+			String[] names = new String[bench.testnum];
+			for (int i = 0; i < names.length; ++i) {
+				names[i] = "passenger" + i;
+			}
+			for (Engine engine : engines) {
+				System.out.println("statistics for engine=" + engine.name().toLowerCase()
+						+ " " + bench + " repeat=" + repeat);
+				double cost = 1.0;
+				double tail = 1.0;
+				for (int r = 0; r < repeat; ++r) {
+					long each = run(engine, bench, names, r);
+					if (bench.sample > 0 && bench.clients == 0) {
+						System.out.println("repeat" + r + ": " + each / 1000000 + "ms p99=" + p99 / 1000 + "us");
+						tail *= Math.pow(Math.max(p99, 1), 1.0 / (double) repeat);
+					} else {
+						System.out.println("repeat" + r + ": " + each / 1000000 + "ms");
+					}
+					cost *= Math.pow(each, 1.0 / (double) repeat);
+				}
+				System.out.println("average: " + (long) (cost / 1000000.0) + "ms");
+				if (bench.sample > 0 && bench.clients == 0) {
+					System.out.println("p99 average: " + (long) (tail / 1000.0) + "us");
+				}
+				if (latency != null) {
+					System.out.print("latency of the last repeat:\n" + latency);
+					latency = null;
+				}
+				System.out.println();
+				System.out.flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package ticketingsystem;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * contention and retry counters of one engine, per route and per tour
+ * switched on for the whole JVM with -Dticketingsystem.contention=true and,
+ * like Latency, folded away by the JIT when off
+ * the counters are registered as the MBean ticketingsystem:type=Contention,id=N
+ * and with -Dticketingsystem.contention.period=S printed every S seconds,
+ * counting only the events of the last period, so probing cost rising as the
+ * trains fill shows up as a rising probes per sale
+ * cells are striped per core like Rests.Striped, so counting never
+ * bounces a line between cores that work on the same route
+ */
+public final class Contention implements ContentionMBean, AutoCloseable {
+    public static final boolean ENABLED = Boolean.getBoolean("ticketingsystem.contention");
+    private static final long PERIOD = Long.getLong("ticketingsystem.contention.period", 0);
+
+    public static final int SALES = 0;
+    public static final int PROBES = 1;
+    public static final int LOST = 2;
+    public static final int STALE = 3;
+    public static final int REFUNDS = 4;
+    public static final int MISSES = 5;
+    public static final int LOCK_WAITS = 6;
+    public static final int ADMISSIONS = 7;
+    public static final int ADMISSION_NANOS = 8;
+    private static final int EVENTS = 9;
+
+    // longs of one cache line
+    private static final int PAD = 8;
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private final int routemax;
+    private final TourTable table;
+    private final int mask;
+    private final int stride;
+    // index of tour 0 of route 0 in a stripe, behind the events
+    private final int tours;
+    // cells[stripe * stride + PAD + route * EVENTS + event]
+    // cells[stripe * stride + PAD + tours + route * (tourmax + 1) + tour] sales of the tour
+    private final AtomicLongArray cells;
+
+    private final ObjectName name;
+    private final Thread dumper;
+
+    public Contention(int routemax, TourTable table) {
+        this.routemax = routemax;
+        this.table = table;
+        int stripes = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors(), 1) * 2 - 1);
+        mask = stripes - 1;
+        tours = (routemax + 1) * EVENTS;
+        int used = tours + (routemax + 1) * (table.tourmax + 1);
+        // stripes are separated by one padding line
+        stride = PAD + (used + PAD - 1) / PAD * PAD;
+        cells = new AtomicLongArray(stripes * stride + PAD);
+
+        int id = ids.incrementAndGet();
+        name = register(id);
+        if (PERIOD > 0) {
+            dumper = new Thread(this::dumpPeriodically, "contention-dump-" + id);
+            dumper.setDaemon(true);
+            dumper.start();
+        } else {
+            dumper = null;
+        }
+    }
+
+    private ObjectName register(int id) {
+        try {
+            ObjectName name = new ObjectName("ticketingsystem:type=Contention,id=" + id);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            return name;
+        } catch (JMException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private int base() {
+        return ((int) Thread.currentThread().getId() & mask) * stride + PAD;
+    }
+
+    public void add(int route, int event, long n) {
+        cells.getAndAdd(base() + route * EVENTS + event, n);
+    }
+
+    /**
+     * one ticket of the tour sold on the route
+     */
+    public void sold(int route, int tour) {
+        int base = base();
+        cells.getAndIncrement(base + route * EVENTS + SALES);
+        cells.getAndIncrement(base + tours + route * (table.tourmax + 1) + tour);
+    }
+
+    /**
+     * one pass of the admission gate which took nanos
+     */
+    public void admitted(int route, long nanos) {
+        int base = base();
+        cells.getAndIncrement(base + route * EVENTS + ADMISSIONS);
+        cells.getAndAdd(base + route * EVENTS + ADMISSION_NANOS, nanos);
+    }
+
+    // sum of one cell over all stripes
+    private long sum(int offset) {
+        long total = 0;
+        for (int i = PAD + offset; i < cells.length(); i += stride) {
+            total += cells.get(i);
+        }
+        return total;
+    }
+
+    public long get(int route, int event) {
+        return sum(route * EVENTS + event);
+    }
+
+    private long[] perRoute(int event) {
+        long[] values = new long[routemax + 1];
+        for (int route = 1; route <= routemax; ++route) {
+            values[route] = get(route, event);
+        }
+        return values;
+    }
+
+    public long[] getSales() {
+        return perRoute(SALES);
+    }
+
+    public long[] getProbes() {
+        return perRoute(PROBES);
+    }
+
+    public long[] getLostRaces() {
+        return perRoute(LOST);
+    }
+
+    public long[] getStaleRetries() {
+        return perRoute(STALE);
+    }
+
+    public long[] getRefunds() {
+        return perRoute(REFUNDS);
+    }
+
+    public long[] getRefundMisses() {
+        return perRoute(MISSES);
+    }
+
+    public long[] getLockWaits() {
+        return perRoute(LOCK_WAITS);
+    }
+
+    public long[] getAdmissionWaitNanos() {
+        return perRoute(ADMISSION_NANOS);
+    }
+
+    public long[] segmentSales(int route) {
+        long[] segments = new long[table.stationmax];
+        if (route <= 0 || route > routemax) {
+            return segments;
+        }
+        for (int tour = 1; tour <= table.tourmax; ++tour) {
+            long sales = sum(tours + route * (table.tourmax + 1) + tour);
+            for (int s = table.departures[tour]; s < table.arrivals[tour]; ++s) {
+                segments[s] += sales;
+            }
+        }
+        return segments;
+    }
+
+    public String dump() {
+        return dump(collect(), new long[routemax + 1][EVENTS + table.stationmax]);
+    }
+
+    // every event of every route followed by its segment sales
+    private long[][] collect() {
+        long[][] values = new long[routemax + 1][];
+        for (int route = 1; route <= routemax; ++route) {
+            values[route] = new long[EVENTS + table.stationmax];
+            for (int event = 0; event < EVENTS; ++event) {
+                values[route][event] = get(route, event);
+            }
+            System.arraycopy(segmentSales(route), 0, values[route], EVENTS, table.stationmax);
+        }
+        return values;
+    }
+
+    // counters of now minus before, one line per route with any event
+    private String dump(long[][] now, long[][] before) {
+        StringBuilder text = new StringBuilder();
+        for (int route = 1; route <= routemax; ++route) {
+            long[] d = new long[now[route].length];
+            boolean any = false;
+            for (int i = 0; i < d.length; ++i) {
+                d[i] = now[route][i] - before[route][i];
+                any |= d[i] != 0;
+            }
+            if (!any) continue;
+            // segment crossed by the most sales
+            int hot = 0;
+            for (int s = 1; s < table.stationmax; ++s) {
+                if (d[EVENTS + s] > d[EVENTS + hot]) hot = s;
+            }
+            text.append(String.format(
+                    "route %d sales=%d probes/sale=%.2f lost=%d stale=%d refunds=%d misses=%d lockwaits=%d"
+                            + " admission=%.2fus/op hot segment %d-%d=%d%n",
+                    route, d[SALES],
+                    d[SALES] > 0 ? (double) d[PROBES] / d[SALES] : 0.0,
+                    d[LOST], d[STALE], d[REFUNDS], d[MISSES], d[LOCK_WAITS],
+                    d[ADMISSIONS] > 0 ? d[ADMISSION_NANOS] / 1000.0 / d[ADMISSIONS] : 0.0,
+                    hot, hot + 1, d[EVENTS + hot]));
+        }
+        return text.toString();
+    }
+
+    private void dumpPeriodically() {
+        long[][] before = new long[routemax + 1][EVENTS + table.stationmax];
+        try {
+            while (true) {
+                Thread.sleep(PERIOD * 1000);
+                long[][] now = collect();
+                String text = dump(now, before);
+                if (!text.isEmpty()) {
+                    System.out.print("contention of the last " + PERIOD + "s:\n" + text);
+                }
+                before = now;
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    /**
+     * unregister the MBean and stop the dumps
+     */
+    public void close() {
+        if (dumper != null) {
+            dumper.interrupt();
+        }
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
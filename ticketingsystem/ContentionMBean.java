@@ -0,0 +1,39 @@
+package ticketingsystem;
+
+/**
+ * JMX view of Contention, arrays are indexed by route
+ */
+public interface ContentionMBean {
+    // tickets sold
+    long[] getSales();
+
+    // seats tried by the probe loop of RouteInfo.acquire
+    long[] getProbes();
+
+    // seats lost to a racing buyer after they looked empty
+    long[] getLostRaces();
+
+    // probes retried because the free seat index lagged the counters
+    long[] getStaleRetries();
+
+    long[] getRefunds();
+
+    // refunds of tickets not held
+    long[] getRefundMisses();
+
+    // seat locks found held
+    long[] getLockWaits();
+
+    // time spent in the admission gate
+    long[] getAdmissionWaitNanos();
+
+    /**
+     * @return tickets sold over each segment of the route, index s for station s to s + 1
+     */
+    long[] segmentSales(int route);
+
+    /**
+     * @return the counters of every touched route as text
+     */
+    String dump();
+}
@@ -0,0 +1,109 @@
+package ticketingsystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * ticketing engines selectable in test.txt and bench.txt by "engine="
+ */
+public enum Engine {
+    // seat locks and shared collision counters
+    LOCKED {
+        public TicketingSystem create(int routenum, int coachnum, int seatnum, int stationnum, int threadnum) {
+            return new TicketingDS(routenum, coachnum, seatnum, stationnum, threadnum);
+        }
+    },
+    // seat locks with remaining tickets striped over per-core cells
+    STRIPED {
+        public TicketingSystem create(int routenum, int coachnum, int seatnum, int stationnum, int threadnum) {
+            Options options = new Options();
+            options.stripedCounters = true;
+            return new TicketingDS(routenum, coachnum, seatnum, stationnum, threadnum, options);
+        }
+    },
+    // seat locks and counters each on a cache line of their own
+    PADDED {
+        public TicketingSystem create(int routenum, int coachnum, int seatnum, int stationnum, int threadnum) {
+            Options options = new Options();
+            options.paddedLayout = true;
+            return new TicketingDS(routenum, coachnum, seatnum, stationnum, threadnum, options);
+        }
+    },
+    // seat locks with a version stamp per route for consistent multi-tour reads
+    VERSIONED {
+        public TicketingSystem create(int routenum, int coachnum, int seatnum, int stationnum, int threadnum) {
+            Options options = new Options();
+            options.versionedRoutes = true;
+            return new TicketingDS(routenum, coachnum, seatnum, stationnum, threadnum, options);
+        }
+    },
+    // seat locks with the buys and refunds of a route combined in batches
+    COMBINING {
+        public TicketingSystem create(int routenum, int coachnum, int seatnum, int stationnum, int threadnum) {
+            Options options = new Options();
+            options.combining = true;
+            return new TicketingDS(routenum, coachnum, seatnum, stationnum, threadnum, options);
+        }
+    },
+    // seat locks with every sale and refund appended to a temporary journal
+    JOURNALED {
+        public TicketingSystem create(int routenum, int coachnum, int seatnum, int stationnum, int threadnum) {
+            Options options = new Options();
+            options.journal = temporaryJournal(1000);
+            return new TicketingDS(routenum, coachnum, seatnum, stationnum, threadnum, options);
+        }
+    },
+    // journaled, and each call waits until its record is forced to disk
+    DURABLE {
+        public TicketingSystem create(int routenum, int coachnum, int seatnum, int stationnum, int threadnum) {
+            Options options = new Options();
+            options.journal = temporaryJournal(100);
+            options.durable = true;
+            return new TicketingDS(routenum, coachnum, seatnum, stationnum, threadnum, options);
+        }
+    },
+    // one CAS per seat on station segment bits
+    LOCKFREE {
+        public TicketingSystem create(int routenum, int coachnum, int seatnum, int stationnum, int threadnum) {
+            return new LockFreeTicketingDS(routenum, coachnum, seatnum, stationnum, threadnum);
+        }
+    },
+    // one worker thread owns each route and applies its buys and refunds
+    ACTOR {
+        public TicketingSystem create(int routenum, int coachnum, int seatnum, int stationnum, int threadnum) {
+            return new ActorTicketingDS(routenum, coachnum, seatnum, stationnum, threadnum);
+        }
+    },
+    // lock free engine on direct memory segments
+    OFFHEAP {
+        public TicketingSystem create(int routenum, int coachnum, int seatnum, int stationnum, int threadnum) {
+            Options options = new Options();
+            options.offHeap = true;
+            return new LockFreeTicketingDS(routenum, coachnum, seatnum, stationnum, threadnum, options);
+        }
+    };
+
+    public abstract TicketingSystem create(int routenum, int coachnum, int seatnum, int stationnum, int threadnum);
+
+    // 64 MiB segments, forced every 256 records or commitMicros
+    private static Journal temporaryJournal(long commitMicros) {
+        try {
+            return Journal.temporary(64L << 20, 256, commitMicros);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param name engine name in any case
+     * @return matched engine, or null if no one matches
+     */
+    public static Engine parse(String name) {
+        for (Engine engine : values()) {
+            if (engine.name().equalsIgnoreCase(name.trim())) {
+                return engine;
+            }
+        }
+        return null;
+    }
+}
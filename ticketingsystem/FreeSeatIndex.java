@@ -0,0 +1,169 @@
+package ticketingsystem;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * free seats of every tour of one route as a two level bitmap
+ * bit (no - 1) of a tour's leaf words is set while seat no is empty on the tour,
+ * bit w of the tour's summary words is set while leaf word w may have free seats,
+ * so a free seat is found a word at a time whatever the train fill rate is
+ * leaves are exact under the seat lock, summaries are only hints
+ */
+public final class FreeSeatIndex {
+    // longs of one cache line
+    private static final int PAD = 8;
+
+    // leaf words of each tour
+    private final int words;
+    // summary words of each tour
+    private final int sums;
+    // distance between the words of two tours, rounded up to lines when padded
+    private final int wordStride;
+    private final int sumStride;
+    // index of the first word of tour 1
+    private final int base;
+
+    private final AtomicLongArray leaves;
+    private final AtomicLongArray summaries;
+
+    /**
+     * all seats are free at the beginning
+     * @param tourmax how many tours
+     * @param nomax how many seats
+     */
+    public FreeSeatIndex(int tourmax, int nomax) {
+        this(tourmax, nomax, false);
+    }
+
+    /**
+     * @param padded start the words of each tour on a cache line of their own,
+     *               so that sales on neighbouring tours do not share lines
+     */
+    public FreeSeatIndex(int tourmax, int nomax, boolean padded) {
+        words = (nomax + 63) >>> 6;
+        sums = (words + 63) >>> 6;
+        wordStride = padded ? roundUp(words) : words;
+        sumStride = padded ? roundUp(sums) : sums;
+        // one more line in front and behind when padded
+        base = padded ? PAD : 0;
+        leaves = new AtomicLongArray(tourmax * wordStride + 2 * base);
+        summaries = new AtomicLongArray(tourmax * sumStride + 2 * base);
+        for (int tour = 1; tour <= tourmax; ++tour) {
+            for (int w = 0; w < words; ++w) {
+                int used = Math.min(nomax - (w << 6), Long.SIZE);
+                leaves.set(leaf(tour, w), used == Long.SIZE ? -1L : (1L << used) - 1);
+                summaries.getAndAccumulate(summary(tour, w), 1L << (w & 63), (a, b) -> a | b);
+            }
+        }
+    }
+
+    private static int roundUp(int n) {
+        return (n + PAD - 1) / PAD * PAD;
+    }
+
+    private int leaf(int tour, int w) {
+        return base + (tour - 1) * wordStride + w;
+    }
+
+    private int summary(int tour, int w) {
+        return base + (tour - 1) * sumStride + (w >>> 6);
+    }
+
+    /**
+     * seat no becomes empty on the tour
+     */
+    public void set(int tour, int no) {
+        int w = (no - 1) >>> 6;
+        int i = leaf(tour, w);
+        long bit = 1L << ((no - 1) & 63);
+        long old = leaves.get(i);
+        while (!leaves.compareAndSet(i, old, old | bit)) {
+            old = leaves.get(i);
+        }
+        if (old == 0) {
+            mark(tour, w);
+        }
+    }
+
+    /**
+     * seat no is sold on the tour
+     */
+    public void clear(int tour, int no) {
+        int w = (no - 1) >>> 6;
+        int i = leaf(tour, w);
+        long bit = 1L << ((no - 1) & 63);
+        long old = leaves.get(i);
+        while (!leaves.compareAndSet(i, old, old & ~bit)) {
+            old = leaves.get(i);
+        }
+        if ((old & ~bit) == 0) {
+            unmark(tour, w);
+            // a seat of this word may have been refunded meanwhile
+            if (leaves.get(i) != 0) {
+                mark(tour, w);
+            }
+        }
+    }
+
+    private void mark(int tour, int w) {
+        int i = summary(tour, w);
+        long bit = 1L << (w & 63);
+        long old = summaries.get(i);
+        while ((old & bit) == 0 && !summaries.compareAndSet(i, old, old | bit)) {
+            old = summaries.get(i);
+        }
+    }
+
+    private void unmark(int tour, int w) {
+        int i = summary(tour, w);
+        long bit = 1L << (w & 63);
+        long old = summaries.get(i);
+        while ((old & bit) != 0 && !summaries.compareAndSet(i, old, old & ~bit)) {
+            old = summaries.get(i);
+        }
+    }
+
+    /**
+     * find one seat which looks empty on the tour
+     * @param tour hashed code of the tour
+     * @param start seat to start searching from, 0 .. nomax - 1
+     * @return seat no, or 0 if no seat looks empty
+     */
+    public int find(int tour, int start) {
+        int first = start >>> 6;
+        int w = first;
+        for (int n = 0; n <= words; ++n) {
+            w = next(tour, w);
+            if (w < 0) {
+                return 0;
+            }
+            long bits = leaves.get(leaf(tour, w));
+            if (bits != 0) {
+                if (w == first) {
+                    // prefer the seats after the start
+                    long high = bits & (-1L << (start & 63));
+                    if (high != 0) bits = high;
+                }
+                return (w << 6) + Long.numberOfTrailingZeros(bits) + 1;
+            }
+            // stale summary, go on with the next word
+            w = w + 1 == words ? 0 : w + 1;
+        }
+        return 0;
+    }
+
+    // first marked leaf word at or after from, wrapping around, -1 if none
+    private int next(int tour, int from) {
+        int first = summary(tour, 0);
+        int k = from >>> 6;
+        long bits = summaries.get(first + k) & (-1L << (from & 63));
+        for (int n = 0; n <= sums; ++n) {
+            if (bits != 0) {
+                return (k << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            k = k + 1 == sums ? 0 : k + 1;
+            bits = summaries.get(first + k);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,491 @@
+package ticketingsystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * write ahead journal of buys and refunds in memory mapped segment files
+ * an append reserves fixed size records by one atomic add and writes them
+ * straight into the mapped segment, the type word is released last, so
+ * a record is complete once its type is seen
+ * a group commit thread forces the completed records to disk every
+ * commitRecords records or commitMicros microseconds, whichever comes first,
+ * callers wait for it only when they ask to
+ *
+ * records are RECORD bytes, little endian
+ *   0 int  type, 0 for not written yet
+ *   4 int  route
+ *   8 long tid
+ *  16 int  seat numero
+ *  20 int  tour
+ *  24 int  length of the passenger name in chars, 0 for refunds
+ *  28      first INLINE chars of the name as UTF-16
+ * the rest of a long name follows in NAME records of CONTINUED chars from offset 4
+ * positions are byte offsets over all segments, segment N starts at N * segmentSize
+ * opening an existing directory goes on after its last complete record
+ * before the first hole, the records behind a hole are cleared
+ */
+public final class Journal implements AutoCloseable {
+    public static final int RECORD = 64;
+    public static final int BUY = 1;
+    public static final int REFUND = 2;
+    public static final int NAME = 3;
+    // fills the end of a segment which a reservation did not fit
+    public static final int PAD = 4;
+
+    static final int INLINE = (RECORD - 28) / 2;
+    static final int CONTINUED = (RECORD - 4) / 2;
+
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Path directory;
+    private final long segmentSize;
+    private final int commitRecords;
+    private final long commitNanos;
+    private final boolean temporary;
+
+    private final ConcurrentHashMap<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+    // the last segment used, saves the map lookup
+    private volatile Segment current = null;
+
+    // end of the reserved records
+    private final AtomicLong tail = new AtomicLong(0);
+    // end of the records forced to disk
+    private volatile long durable = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition forced = lock.newCondition();
+    private final Thread committer;
+    private volatile boolean running = true;
+
+    /**
+     * @param directory where the segment files journal-N.log are created
+     * @param segmentSize bytes of each segment, rounded down to whole records
+     * @param commitRecords force after so many records
+     * @param commitMicros force at least this often while records are pending
+     */
+    public Journal(Path directory, long segmentSize, int commitRecords, long commitMicros) throws IOException {
+        this(directory, segmentSize, commitRecords, commitMicros, false);
+    }
+
+    private Journal(Path directory, long segmentSize, int commitRecords, long commitMicros, boolean temporary) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize / RECORD * RECORD;
+        this.commitRecords = Math.max(commitRecords, 1);
+        this.commitNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(commitMicros, 1));
+        this.temporary = temporary;
+        recover();
+        committer = new Thread(this::commit, "journal-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * journal in a new temporary directory, deleted again on close
+     */
+    public static Journal temporary(long segmentSize, int commitRecords, long commitMicros) throws IOException {
+        return new Journal(Files.createTempDirectory("journal"), segmentSize, commitRecords, commitMicros, true);
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    public long segmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * record a sold ticket, called under the seat lock so the records
+     * of one seat are in the order of its sales and refunds
+     * @return position of the record
+     */
+    public long buy(long tid, int route, int no, int tour, String name) {
+        int length = name.length();
+        int records = 1 + (Math.max(length - INLINE, 0) + CONTINUED - 1) / CONTINUED;
+        long pos = reserve(records);
+        // continuations first, the head's type publishes the whole record
+        for (int r = 1, from = INLINE; r < records; ++r, from += CONTINUED) {
+            long at = pos + (long) r * RECORD;
+            MappedByteBuffer buffer = segment(at);
+            int base = offset(at);
+            for (int i = from, end = Math.min(from + CONTINUED, length); i < end; ++i) {
+                buffer.putChar(base + 4 + 2 * (i - from), name.charAt(i));
+            }
+            INTS.setRelease(buffer, base, NAME);
+        }
+        MappedByteBuffer buffer = segment(pos);
+        int base = offset(pos);
+        buffer.putInt(base + 4, route);
+        buffer.putLong(base + 8, tid);
+        buffer.putInt(base + 16, no);
+        buffer.putInt(base + 20, tour);
+        buffer.putInt(base + 24, length);
+        for (int i = 0, end = Math.min(INLINE, length); i < end; ++i) {
+            buffer.putChar(base + 28 + 2 * i, name.charAt(i));
+        }
+        INTS.setRelease(buffer, base, BUY);
+        return pos;
+    }
+
+    /**
+     * record a refunded ticket, called under the seat lock
+     * @return position of the record
+     */
+    public long refund(long tid, int route, int no, int tour) {
+        long pos = reserve(1);
+        MappedByteBuffer buffer = segment(pos);
+        int base = offset(pos);
+        buffer.putInt(base + 4, route);
+        buffer.putLong(base + 8, tid);
+        buffer.putInt(base + 16, no);
+        buffer.putInt(base + 20, tour);
+        buffer.putInt(base + 24, 0);
+        INTS.setRelease(buffer, base, REFUND);
+        return pos;
+    }
+
+    /**
+     * receiver of the records read back by replay
+     */
+    public interface Replay {
+        void buy(long pos, long tid, int route, int no, int tour, String name);
+
+        void refund(long pos, long tid, int route, int no, int tour);
+    }
+
+    /**
+     * read back the complete records from a position on, in journal order
+     * @param from position to start at, e.g. the one of a snapshot
+     * @return position after the last record read
+     * @throws UncheckedIOException when records from the position were discarded
+     */
+    public long replay(long from, Replay replay) {
+        long pos = from / RECORD * RECORD;
+        long end = tail.get();
+        char[] chars = new char[INLINE];
+        while (pos < end) {
+            // durable records must still be there, later ones may not be mapped yet
+            MappedByteBuffer buffer = pos < durable ? segment(pos, false) : peek(pos);
+            if (buffer == null) break;
+            int base = offset(pos);
+            int type = (int) INTS.getAcquire(buffer, base);
+            if (type == 0) break;
+            int records = 1;
+            if (type == BUY) {
+                int length = buffer.getInt(base + 24);
+                records += (Math.max(length - INLINE, 0) + CONTINUED - 1) / CONTINUED;
+                if (chars.length < length) {
+                    chars = new char[length];
+                }
+                for (int i = 0, n = Math.min(INLINE, length); i < n; ++i) {
+                    chars[i] = buffer.getChar(base + 28 + 2 * i);
+                }
+                for (int r = 1, first = INLINE; r < records; ++r, first += CONTINUED) {
+                    int at = base + r * RECORD;
+                    for (int i = first, n = Math.min(first + CONTINUED, length); i < n; ++i) {
+                        chars[i] = buffer.getChar(at + 4 + 2 * (i - first));
+                    }
+                }
+                replay.buy(pos, buffer.getLong(base + 8), buffer.getInt(base + 4),
+                        buffer.getInt(base + 16), buffer.getInt(base + 20), new String(chars, 0, length));
+            } else if (type == REFUND) {
+                replay.refund(pos, buffer.getLong(base + 8), buffer.getInt(base + 4),
+                        buffer.getInt(base + 16), buffer.getInt(base + 20));
+            }
+            pos += (long) records * RECORD;
+        }
+        return pos;
+    }
+
+    /**
+     * delete the segment files which only hold records before the position,
+     * e.g. the one a snapshot was taken at
+     */
+    public void discard(long before) {
+        for (long index = 0; (index + 1) * segmentSize <= Math.min(before, durable); ++index) {
+            segments.remove(index);
+            try {
+                Files.deleteIfExists(file(index));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return end of the records appended so far, for await
+     */
+    public long position() {
+        return tail.get();
+    }
+
+    /**
+     * @return end of the records forced to disk
+     */
+    public long durable() {
+        return durable;
+    }
+
+    /**
+     * wait until every record before the position is on disk
+     */
+    public void await(long position) {
+        if (durable >= position) return;
+        lock.lock();
+        try {
+            while (durable < position && running) {
+                forced.await();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * force everything and stop the commit thread
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(committer);
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        segments.clear();
+        current = null;
+        if (temporary) {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(file);
+                }
+                Files.deleteIfExists(directory);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // go on after the last complete record of an existing directory
+    private void recover() throws IOException {
+        long first = Long.MAX_VALUE;
+        long last = -1;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.matches("journal-\\d+\\.log")) {
+                    long index = Long.parseLong(name.substring(8, name.length() - 4));
+                    first = Math.min(first, index);
+                    last = Math.max(last, index);
+                }
+            }
+        }
+        if (last < 0) return;
+
+        // scan every segment left after discard, a crash may leave a hole in
+        // any of them whose records the commit thread never forced
+        long end = first * segmentSize;
+        for (long index = first; index <= last; ++index) {
+            if (!Files.exists(file(index))) break;
+            MappedByteBuffer buffer = open(index);
+            int at = 0;
+            while (at < segmentSize && complete(buffer, at)) {
+                at += records(buffer, at) * RECORD;
+            }
+            end = index * segmentSize + at;
+            if (at < segmentSize) {
+                // records behind a hole were never durable, clear them so they are not read back
+                for (int i = at; i < segmentSize; i += 8) {
+                    buffer.putLong(i, 0);
+                }
+                buffer.force();
+                break;
+            }
+        }
+        for (long index = end / segmentSize + 1; index <= last; ++index) {
+            Files.deleteIfExists(file(index));
+        }
+        tail.set(end);
+        durable = end;
+    }
+
+    // records taken by the record at the offset, its name continuations included
+    private static int records(MappedByteBuffer buffer, int at) {
+        if (buffer.getInt(at) != BUY) return 1;
+        return 1 + (Math.max(buffer.getInt(at + 24) - INLINE, 0) + CONTINUED - 1) / CONTINUED;
+    }
+
+    // the record and all of its continuations were written
+    private boolean complete(MappedByteBuffer buffer, int at) {
+        if (buffer.getInt(at) == 0) return false;
+        int records = records(buffer, at);
+        if (at + (long) records * RECORD > segmentSize) return false;
+        for (int r = 1; r < records; ++r) {
+            if (buffer.getInt(at + r * RECORD) != NAME) return false;
+        }
+        return true;
+    }
+
+    // reserve whole records inside one segment
+    private long reserve(int records) {
+        long bytes = (long) records * RECORD;
+        for (;;) {
+            long pos = tail.getAndAdd(bytes);
+            long boundary = (pos / segmentSize + 1) * segmentSize;
+            if (pos + bytes <= boundary) {
+                if (pos / RECORD % commitRecords + records >= commitRecords) {
+                    // this reservation completes a batch
+                    LockSupport.unpark(committer);
+                }
+                return pos;
+            }
+            // the records would cross into the next segment, give them up
+            for (long at = pos; at < pos + bytes; at += RECORD) {
+                INTS.setRelease(segment(at), offset(at), PAD);
+            }
+        }
+    }
+
+    private int offset(long pos) {
+        return (int) (pos % segmentSize);
+    }
+
+    // segment to append to, created when missing
+    private MappedByteBuffer segment(long pos) {
+        return segment(pos, true);
+    }
+
+    private MappedByteBuffer segment(long pos, boolean create) {
+        long index = pos / segmentSize;
+        Segment segment = current;
+        if (segment != null && segment.index == index) {
+            return segment.buffer;
+        }
+        MappedByteBuffer buffer = segments.computeIfAbsent(index, create ? this::create : this::open);
+        current = new Segment(index, buffer);
+        return buffer;
+    }
+
+    // segment to read from, null while its first writer has not created it
+    private MappedByteBuffer peek(long pos) {
+        try {
+            return segment(pos, false);
+        } catch (UncheckedIOException e) {
+            if (e.getCause() instanceof NoSuchFileException) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private static final class Segment {
+        final long index;
+        final MappedByteBuffer buffer;
+
+        Segment(long index, MappedByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+
+    private Path file(long index) {
+        return directory.resolve(String.format("journal-%06d.log", index));
+    }
+
+    private MappedByteBuffer create(long index) {
+        return map(index, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // readers never create a segment, a discarded one would come back empty
+    private MappedByteBuffer open(long index) {
+        return map(index, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private MappedByteBuffer map(long index, StandardOpenOption... options) {
+        try (FileChannel channel = FileChannel.open(file(index), options)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // group commit loop
+    private void commit() {
+        // recover() set durable to the end of the recovered records
+        long ready = durable;
+        boolean stopping = false;
+        while (!stopping) {
+            stopping = !running;
+            if (!stopping) {
+                LockSupport.parkNanos(this, commitNanos);
+            }
+            // advance over the completed records
+            long end = tail.get();
+            while (ready < end) {
+                MappedByteBuffer buffer = peek(ready);
+                if (buffer == null) break;
+                int type = (int) INTS.getAcquire(buffer, offset(ready));
+                if (type == 0) break;
+                int records = 1;
+                if (type == BUY) {
+                    int length = buffer.getInt(offset(ready) + 24);
+                    records += (Math.max(length - INLINE, 0) + CONTINUED - 1) / CONTINUED;
+                }
+                ready += (long) records * RECORD;
+            }
+            if (ready > durable) {
+                force(durable, ready);
+                lock.lock();
+                try {
+                    durable = ready;
+                    forced.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        lock.lock();
+        try {
+            forced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // force the segments covering [from, to), dropping the finished ones
+    private void force(long from, long to) {
+        while (from < to) {
+            long index = from / segmentSize;
+            long end = Math.min(to, (index + 1) * segmentSize);
+            MappedByteBuffer buffer = segments.get(index);
+            if (buffer != null) {
+                buffer.force(offset(from), (int) (end - from));
+            }
+            if (end == (index + 1) * segmentSize) {
+                segments.remove(index);
+            }
+            from = end;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ticketingsystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * check that reopening a journal stops at the first hole in any segment
+ * writes buys over several small segments, then simulates a crash by
+ * clearing one record of an earlier segment, as if its page never reached
+ * the disk, and reopens: replay must end right before the hole, the later
+ * segment files must be gone and new records must follow the hole
+ * exits with status 1 when a check fails
+ */
+public class JournalCheck {
+    final static long segmentSize = 16 * Journal.RECORD;
+    final static int buys = 60;
+
+    static int failed = 0;
+
+    public static void main(String[] args) throws IOException {
+        // a lost head record in the first segment
+        crash("hole", 5, false);
+        // a lost name continuation of a long name in a middle segment
+        crash("torn name", 25, true);
+        // a lost head further on, still before the last segment
+        crash("hole", 45, false);
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    // write the journal, clear the record of buy number hole and reopen
+    static void crash(String what, int hole, boolean continuation) throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        List<Long> positions = new ArrayList<>();
+        try (Journal journal = new Journal(directory, segmentSize, 1, 10)) {
+            for (int i = 0; i < buys; ++i) {
+                positions.add(journal.buy(i + 1, 1, i, 0, name(i)));
+            }
+            journal.await(journal.position());
+        }
+        while (continuation && name(hole).length() <= Journal.INLINE) {
+            ++hole;
+        }
+        long lost = positions.get(hole);
+        clear(directory, continuation ? lost + Journal.RECORD : lost);
+        long last = positions.get(buys - 1) / segmentSize;
+        what += " in segment " + lost / segmentSize + " of " + (last + 1);
+
+        try (Journal journal = new Journal(directory, segmentSize, 1, 10)) {
+            check(what + ": reopened at the hole", journal.position() == lost);
+            boolean deleted = true;
+            for (long index = lost / segmentSize + 1; index <= last; ++index) {
+                deleted &= !Files.exists(directory.resolve(String.format("journal-%06d.log", index)));
+            }
+            check(what + ": later segments deleted", deleted);
+            List<Long> tids = new ArrayList<>();
+            journal.replay(0, new Recorder(tids));
+            check(what + ": " + hole + " records before the hole read back", tids.size() == hole);
+
+            long next = journal.buy(1000, 1, 0, 0, name(0));
+            journal.await(journal.position());
+            check(what + ": appended after the hole", next == lost);
+        }
+        try (Journal journal = new Journal(directory, segmentSize, 1, 10)) {
+            List<Long> tids = new ArrayList<>();
+            journal.replay(0, new Recorder(tids));
+            check(what + ": new record follows the old ones",
+                    tids.size() == hole + 1 && tids.get(hole) == 1000);
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    // every third passenger needs name continuation records
+    static String name(int i) {
+        return i % 3 == 0 ? "passenger with a rather long name number " + i : "passenger" + i;
+    }
+
+    // zero the type word of the record at a journal position
+    static void clear(Path directory, long pos) throws IOException {
+        Path file = directory.resolve(String.format("journal-%06d.log", pos / segmentSize));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer zero = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.write(zero, pos % segmentSize);
+        }
+    }
+
+    static void check(String what, boolean ok) {
+        System.out.println((ok ? "ok     " : "FAILED ") + what);
+        if (!ok) ++failed;
+    }
+
+    static final class Recorder implements Journal.Replay {
+        final List<Long> tids;
+
+        Recorder(List<Long> tids) {
+            this.tids = tids;
+        }
+
+        public void buy(long pos, long tid, int route, int no, int tour, String name) {
+            tids.add(tid);
+        }
+
+        public void refund(long pos, long tid, int route, int no, int tour) {
+            tids.add(tid);
+        }
+    }
+}
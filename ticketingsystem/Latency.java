@@ -0,0 +1,145 @@
+package ticketingsystem;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * latency histograms of the operations of one engine and of their phases
+ * switched on for the whole JVM with -Dticketingsystem.latency=true; the
+ * flag is a static final constant, so when it is off the JIT folds every
+ * "if (Latency.ENABLED)" away and the engines pay nothing
+ * each thread records into its own fixed histograms with plain stores and
+ * a read merges all of them, so recording never waits and never allocates
+ * buckets are log-linear: 16 per power of two, at most 1/16 relative error
+ * from 1ns up to about 36 minutes
+ */
+public final class Latency {
+    public static final boolean ENABLED = Boolean.getBoolean("ticketingsystem.latency");
+
+    // whole operations
+    public static final int BUY = 0;
+    public static final int INQUIRY = 1;
+    public static final int REFUND = 2;
+    // phases of them
+    public static final int ADMISSION = 3;
+    public static final int PROBE = 4;
+    public static final int SEAT_LOCK = 5;
+    static final String[] NAMES = {"buy", "inquiry", "refund", "admission", "probe", "seat lock"};
+    static final int PHASES = NAMES.length;
+
+    // sub-buckets per power of two
+    private static final int SUB_BITS = 4;
+    private static final int SUBS = 1 << SUB_BITS;
+    // longest recorded latency, 2^41ns
+    private static final int MAX_EXPONENT = 41;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUBS;
+
+    // histograms of every thread that ever recorded, also of finished ones
+    private final List<AtomicLongArray> all = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<AtomicLongArray> mine = ThreadLocal.withInitial(() -> {
+        AtomicLongArray counts = new AtomicLongArray(PHASES * BUCKETS);
+        all.add(counts);
+        return counts;
+    });
+
+    /**
+     * count one latency of the phase
+     * @param start System.nanoTime() at the beginning of the phase
+     */
+    public void record(int phase, long start) {
+        int i = phase * BUCKETS + bucket(System.nanoTime() - start);
+        AtomicLongArray counts = mine.get();
+        // only this thread writes its histograms
+        counts.lazySet(i, counts.get(i) + 1);
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUBS) {
+            return (int) Math.max(nanos, 0);
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(nanos), MAX_EXPONENT);
+        int sub = (int) (Math.min(nanos >>> (exponent - SUB_BITS), 2 * SUBS - 1)) & (SUBS - 1);
+        return (exponent - SUB_BITS + 1) * SUBS + sub;
+    }
+
+    // highest latency counted in the bucket
+    static long highest(int bucket) {
+        if (bucket < SUBS) {
+            return bucket;
+        }
+        int exponent = bucket / SUBS + SUB_BITS - 1;
+        int sub = bucket % SUBS;
+        return ((long) (SUBS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * merge the histograms of all threads, racing records may be missed
+     */
+    public Snapshot snapshot() {
+        long[][] counts = new long[PHASES][BUCKETS];
+        for (AtomicLongArray histogram : all) {
+            for (int phase = 0; phase < PHASES; ++phase) {
+                for (int b = 0; b < BUCKETS; ++b) {
+                    counts[phase][b] += histogram.get(phase * BUCKETS + b);
+                }
+            }
+        }
+        return new Snapshot(counts);
+    }
+
+    /**
+     * merged histograms at one moment
+     */
+    public static final class Snapshot {
+        private final long[][] counts;
+
+        Snapshot(long[][] counts) {
+            this.counts = counts;
+        }
+
+        public long count(int phase) {
+            long total = 0;
+            for (long count : counts[phase]) {
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * @param quantile 0.5 for p50, 0.999 for p99.9
+         * @return latency in ns not exceeded by that part of the records, 0 without records
+         */
+        public long percentile(int phase, double quantile) {
+            long total = count(phase);
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max((long) Math.ceil(total * quantile), 1);
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; ++b) {
+                seen += counts[phase][b];
+                if (seen >= rank) {
+                    return highest(b);
+                }
+            }
+            return highest(BUCKETS - 1);
+        }
+
+        // one line per phase with records, latencies in us
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (int phase = 0; phase < PHASES; ++phase) {
+                long n = count(phase);
+                if (n == 0) continue;
+                text.append(String.format("%-9s n=%d p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%n",
+                        NAMES[phase], n,
+                        percentile(phase, 0.5) / 1000.0,
+                        percentile(phase, 0.99) / 1000.0,
+                        percentile(phase, 0.999) / 1000.0,
+                        percentile(phase, 1.0) / 1000.0));
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package ticketingsystem;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * lock free alternative of TicketingDS
+ * each seat is one word of station segment bits, bit (s - 1) is set
+ * when the segment from station s to station s + 1 has been sold,
+ * so buying a ticket is a single CAS which checks the wanted segments
+ * are free and sets them at once
+ * at most 65 stations (64 segments) are supported
+ * with Options.offHeap all routes live in direct memory segments,
+ * so heap use stays nearly constant however large the inventory is
+ */
+public class LockFreeTicketingDS implements TicketingSystem {
+    private final TicketIds tid;
+    private final int routemax;
+    private final int coachmax;
+    private final int seatmax;
+    private final int stationmax;
+
+    private final int tourmax;
+    private final int nomax;
+    // ticket slots of each route
+    private final int slotmax;
+
+    // shared by all routes
+    private final TourTable table;
+    // segment bits of each tour
+    private final long[] masks;
+    // departure of each tour
+    private final int[] departures;
+    // tours sharing at least one segment with each tour
+    private final int[][] collision;
+
+    public LockFreeTicketingDS(int routenum, int coachnum, int seatnum, int stationnum, int threadnum) {
+        this(routenum, coachnum, seatnum, stationnum, threadnum, new Options());
+    }
+
+    public LockFreeTicketingDS(int routenum, int coachnum, int seatnum, int stationnum, int threadnum, Options options) {
+        if (stationnum - 1 > Long.SIZE) {
+            throw new IllegalArgumentException("at most " + (Long.SIZE + 1) + " stations are supported");
+        }
+        tid = new TicketIds();
+        routemax = routenum;
+        coachmax = coachnum;
+        seatmax = seatnum;
+        stationmax = stationnum;
+
+        table = TourTable.of(stationmax);
+        masks = table.masks;
+        departures = table.departures;
+        collision = table.collision;
+        /// how many tours in total (only single direction)
+        tourmax = table.tourmax;
+        // seats are numbered densely, coach by coach
+        nomax = product(coachmax, seatmax);
+        slotmax = product(nomax, stationmax - 1);
+
+        initRoutes(options.offHeap);
+    }
+
+    public Ticket buyTicket(String passenger, int route, int departure, int arrival) {
+        if (passenger == null) return null;
+        if (route <= 0 || route > routemax) return null;
+        if (departure <= 0 || departure > stationmax) return null;
+        if (arrival <= 0 || arrival > stationmax) return null;
+        if (departure >= arrival) return null;
+
+        Ticket ticket = new Ticket();
+        if (!routes[route].acquire(hashTour(departure, arrival), passenger, ticket)) {
+            return null;
+        }
+        ticket.passenger = passenger;
+        ticket.route = route;
+        ticket.departure = departure;
+        ticket.arrival = arrival;
+        return ticket;
+    }
+
+    /**
+     * group booking is not offered: seats are claimed by one CAS each, so
+     * a party could never become visible at once and other callers would
+     * see it partly seated; use TicketingDS or ActorTicketingDS instead
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public Ticket[] buyTickets(String[] passengers, int route, int departure, int arrival, boolean adjacent) {
+        throw new UnsupportedOperationException("group booking is not atomic on the lock free engine");
+    }
+
+    public int inquiry(int route, int departure, int arrival) {
+        if (route <= 0 || route > routemax) return -1;
+        if (departure <= 0 || departure > stationmax) return -1;
+        if (arrival <= 0 || arrival > stationmax) return -1;
+        if (departure >= arrival) return -1;
+
+        return routes[route].count(hashTour(departure, arrival));
+    }
+
+    public boolean inquiryAll(int route, int[] counts) {
+        if (route <= 0 || route > routemax) return false;
+        if (counts == null || counts.length < tourmax) return false;
+
+        RouteInfo info = routes[route];
+        for (int tour = 1; tour <= tourmax; ++tour) {
+            counts[tour - 1] = info.count(tour);
+        }
+        return true;
+    }
+
+    public boolean refundTicket(Ticket ticket) {
+        if (ticket.passenger == null) return false;
+        if (ticket.route <= 0 || ticket.route > routemax) return false;
+        if (ticket.departure <= 0 || ticket.departure > stationmax) return false;
+        if (ticket.arrival <= 0 || ticket.arrival > stationmax) return false;
+        if (ticket.departure >= ticket.arrival) return false;
+        if (ticket.coach <= 0 || ticket.coach > coachmax) return false;
+        if (ticket.seat <= 0 || ticket.seat > seatmax) return false;
+
+        return routes[ticket.route].release(
+                ticket.tid,
+                hashTour(ticket.departure, ticket.arrival),
+                hashNo(ticket.coach, ticket.seat),
+                ticket.passenger);
+    }
+
+    /**
+     * lock free algorithm of one route
+     * subclasses decide where the seat words, counters and ticket slots live
+     */
+    private abstract class RouteInfo {
+        // sold segment bits of each seat
+        abstract long seat(int no);
+        abstract boolean casSeat(int no, long expect, long update);
+
+        // speed up the inquiry
+        abstract int rest(int tour);
+        abstract void addRest(int tour, int delta);
+        abstract int hint(int tour);
+        abstract void setHint(int tour, int no);
+        abstract void casHint(int tour, int expect, int update);
+
+        // tid, passenger and tour of the ticket starting at each (seat, departure)
+        // a seat can hold only one ticket leaving from the same station
+        // 0 marks an empty slot
+        abstract long tid(int slot);
+        abstract boolean casTid(int slot, long expect, long update);
+        abstract boolean holds(int slot, String name);
+        abstract int tour(int slot);
+        // record the passenger and the tour and then publish the tid
+        abstract void publish(int slot, long ticket, String name, int tour);
+
+        /**
+         * try to buy one ticket of this tour
+         * @param tourid hashed code of this tour's departure and arrival
+         * @param name passenger's name
+         * @param ticket filled with tid, coach and seat when bought
+         * @return true when one seat was marked for this passenger
+         */
+        public boolean acquire(int tourid, String name, Ticket ticket) {
+            long mask = masks[tourid];
+            while (rest(tourid) > 0) {
+                // sweep all seats once starting at the possible empty one
+                int start = hint(tourid);
+                for (int i = 0; i < nomax; ++i) {
+                    int no = (start + i - 1) % nomax + 1;
+                    long old = seat(no);
+                    while ((old & mask) == 0) {
+                        if (casSeat(no, old, old | mask)) {
+                            // linearizable position for each succeed ticket bought
+                            sold(tourid, old);
+                            casHint(tourid, start, no % nomax + 1);
+
+                            long ticketId = tid.next();
+                            publish(hashSlot(no, departures[tourid]), ticketId, name, tourid);
+
+                            ticket.tid = ticketId;
+                            ticket.coach = (no - 1) / seatmax + 1;
+                            ticket.seat = (no - 1) % seatmax + 1;
+                            return true;
+                        }
+                        // other segments of this seat changed, test it again
+                        old = seat(no);
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * refund one bought ticket
+         * @param ticket tid of the bought ticket
+         * @param tourid hashed code of this tour's departure and arrival
+         * @param no numero of the seat
+         * @param name passenger's name
+         * @return true for bought ticket, otherwise false
+         */
+        public boolean release(long ticket, int tourid, int no, String name) {
+            int slot = hashSlot(no, departures[tourid]);
+            if (ticket <= 0 || tid(slot) != ticket) return false;
+            // the slot only knows the departure, the arrival must match too
+            if (tour(slot) != tourid) return false;
+            if (!holds(slot, name)) return false;
+            // only one refund of the same ticket succeeds
+            if (!casTid(slot, ticket, 0)) return false;
+
+            long mask = masks[tourid];
+            long old = seat(no);
+            while (!casSeat(no, old, old & ~mask)) {
+                old = seat(no);
+            }
+            refunded(tourid, no, old & ~mask);
+            return true;
+        }
+
+        // count the tours which were available on the seat before it was sold
+        private void sold(int tourid, long before) {
+            for (int tour : collision[tourid]) {
+                if ((before & masks[tour]) == 0) {
+                    addRest(tour, -1);
+                }
+            }
+        }
+
+        // count the tours which become available on the seat after the refund
+        private void refunded(int tourid, int no, long after) {
+            for (int tour : collision[tourid]) {
+                if ((after & masks[tour]) == 0) {
+                    addRest(tour, 1);
+                    setHint(tour, no);
+                }
+            }
+        }
+
+        public int count(int tourid) {
+            // counters of racing buy and refund may be applied out of order
+            return Math.max(rest(tourid), 0);
+        }
+    }
+
+    private class HeapRoute extends RouteInfo {
+        private final AtomicLongArray seats;
+        private final AtomicIntegerArray rests;
+        private final AtomicIntegerArray empty;
+        private final AtomicLongArray tids;
+        private final String[] names;
+        private final int[] tours;
+
+        public HeapRoute() {
+            seats = new AtomicLongArray(nomax + 1);
+            tids = new AtomicLongArray(slotmax);
+            names = new String[slotmax];
+            tours = new int[slotmax];
+            rests = new AtomicIntegerArray(tourmax + 1);
+            empty = new AtomicIntegerArray(tourmax + 1);
+            for (int i = 1; i <= tourmax; ++i) {
+                rests.set(i, nomax);
+                empty.set(i, 1);
+            }
+        }
+
+        long seat(int no) { return seats.get(no); }
+        boolean casSeat(int no, long expect, long update) { return seats.compareAndSet(no, expect, update); }
+        int rest(int tour) { return rests.get(tour); }
+        void addRest(int tour, int delta) { rests.getAndAdd(tour, delta); }
+        int hint(int tour) { return empty.get(tour); }
+        void setHint(int tour, int no) { empty.set(tour, no); }
+        void casHint(int tour, int expect, int update) { empty.compareAndSet(tour, expect, update); }
+        long tid(int slot) { return tids.get(slot); }
+        boolean casTid(int slot, long expect, long update) { return tids.compareAndSet(slot, expect, update); }
+        boolean holds(int slot, String name) { return Objects.equals(names[slot], name); }
+        int tour(int slot) { return tours[slot]; }
+
+        void publish(int slot, long ticket, String name, int tour) {
+            names[slot] = name;
+            tours[slot] = tour;
+            tids.set(slot, ticket); // publish the passenger and the tour together
+        }
+    }
+
+    // native order views of the off-heap segments
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    /**
+     * route kept in a direct memory segment with a fixed layout
+     * | seats 8 * (nomax + 1) | rests 4 * (tourmax + 1) | hints 4 * (tourmax + 1) |
+     * | tids 8 * slotmax | passenger fingerprints 8 * slotmax | tours 4 * slotmax |
+     * rounded up to whole cache lines
+     * passengers are kept as 64 bit fingerprints of their names
+     */
+    private class OffHeapRoute extends RouteInfo {
+        private final ByteBuffer segment;
+        private final int seatsAt;
+        private final int restsAt;
+        private final int hintsAt;
+        private final int tidsAt;
+        private final int namesAt;
+        private final int toursAt;
+
+        public OffHeapRoute(ByteBuffer segment, int base) {
+            this.segment = segment;
+            seatsAt = base;
+            restsAt = seatsAt + 8 * (nomax + 1);
+            hintsAt = restsAt + 4 * (tourmax + 1);
+            tidsAt = (int) align(hintsAt + 4 * (tourmax + 1), 8);
+            namesAt = tidsAt + 8 * slotmax;
+            toursAt = namesAt + 8 * slotmax;
+            for (int i = 1; i <= tourmax; ++i) {
+                INTS.set(segment, restsAt + 4 * i, nomax);
+                INTS.set(segment, hintsAt + 4 * i, 1);
+            }
+        }
+
+        long seat(int no) { return (long) LONGS.getVolatile(segment, seatsAt + 8 * no); }
+        boolean casSeat(int no, long expect, long update) { return LONGS.compareAndSet(segment, seatsAt + 8 * no, expect, update); }
+        int rest(int tour) { return (int) INTS.getVolatile(segment, restsAt + 4 * tour); }
+        void addRest(int tour, int delta) { INTS.getAndAdd(segment, restsAt + 4 * tour, delta); }
+        int hint(int tour) { return (int) INTS.getVolatile(segment, hintsAt + 4 * tour); }
+        void setHint(int tour, int no) { INTS.setVolatile(segment, hintsAt + 4 * tour, no); }
+        void casHint(int tour, int expect, int update) { INTS.compareAndSet(segment, hintsAt + 4 * tour, expect, update); }
+        long tid(int slot) { return (long) LONGS.getVolatile(segment, tidsAt + 8 * slot); }
+        boolean casTid(int slot, long expect, long update) { return LONGS.compareAndSet(segment, tidsAt + 8 * slot, expect, update); }
+        boolean holds(int slot, String name) { return name != null && (long) LONGS.get(segment, namesAt + 8 * slot) == fingerprint(name); }
+        int tour(int slot) { return (int) INTS.get(segment, toursAt + 4 * slot); }
+
+        void publish(int slot, long ticket, String name, int tour) {
+            LONGS.set(segment, namesAt + 8 * slot, fingerprint(name));
+            INTS.set(segment, toursAt + 4 * slot, tour);
+            LONGS.setVolatile(segment, tidsAt + 8 * slot, ticket); // publish the passenger and the tour together
+        }
+    }
+
+    // seats or ticket slots of a layout, which must be countable by int
+    private static int product(int a, int b) {
+        try {
+            return Math.multiplyExact(a, b);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(a + " * " + b + " seats or slots are too many", e);
+        }
+    }
+
+    // bytes of one off-heap route, large layouts easily pass 2 GiB
+    private long routeBytes() {
+        long bytes = Math.addExact(Math.multiplyExact(8L, nomax + 1L), Math.multiplyExact(8L, tourmax + 1L));
+        return align(Math.addExact(align(bytes, 8), Math.multiplyExact(20L, slotmax)), 64);
+    }
+
+    private static long align(long bytes, long unit) {
+        return Math.addExact(bytes, unit - 1) / unit * unit;
+    }
+
+    // FNV-1a over the chars of the name
+    private static long fingerprint(String name) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); ++i) {
+            hash ^= name.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private RouteInfo[] routes = null;
+
+    private void initRoutes(boolean offHeap) {
+        routes = new RouteInfo[routemax + 1];
+        if (!offHeap) {
+            for (int i = 1; i <= routemax; ++i) {
+                routes[i] = new HeapRoute();
+            }
+            return;
+        }
+        // as many routes as fit into one segment of at most 1 GiB,
+        // a route larger than that gets a segment of its own
+        long bytes = routeBytes();
+        if (bytes > Integer.MAX_VALUE - 64) {
+            throw new IllegalArgumentException("a route of " + bytes + " bytes does not fit in one off-heap segment");
+        }
+        int each = (int) Math.max(1, (1L << 30) / bytes);
+        ByteBuffer segment = null;
+        for (int i = 1; i <= routemax; ++i) {
+            int k = (i - 1) % each;
+            if (k == 0) {
+                // at most max(1 GiB, bytes), so the int offsets below do not wrap
+                segment = ByteBuffer.allocateDirect(Math.toIntExact(Math.min(each, routemax - i + 1) * bytes));
+            }
+            routes[i] = new OffHeapRoute(segment, Math.toIntExact(k * bytes));
+        }
+    }
+
+    private int hashTour(int departure, int arrival) {
+        return table.hash(departure, arrival);
+    }
+
+    private int hashNo(int coach, int seat) {
+        return (coach - 1) * seatmax + seat;
+    }
+
+    private int hashSlot(int no, int departure) {
+        return (no - 1) * (stationmax - 1) + departure - 1;
+    }
+}
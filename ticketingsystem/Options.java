@@ -0,0 +1,37 @@
+package ticketingsystem;
+
+/**
+ * optional behaviours of the ticketing engines
+ * the defaults suit the hot path
+ */
+public class Options {
+    // gate in front of every operation, see Admission
+    public Admission admission = Admission.NONE;
+
+    // TicketingDS routes built in parallel at construction, the others on first touch
+    public int[] hotRoutes = null;
+
+    // remaining tickets in per-core cells instead of one atomic per tour
+    public boolean stripedCounters = false;
+    // inquiry returns a linearizable count, false allows a cheaper racy sum
+    public boolean exactInquiry = true;
+    // TicketingDS stamps every sale and refund with a per-route version,
+    // so multi-tour inquiries read consistent counts at two atomics per write
+    public boolean versionedRoutes = false;
+    // TicketingDS batches the buys and refunds of each route in one combining thread
+    public boolean combining = false;
+    // TicketingDS strides per-tour counters, free seat words and seat lock words
+    // one cache line apart instead of packing them next to each other
+    public boolean paddedLayout = false;
+
+    // LockFreeTicketingDS keeps seats, counters and tickets in direct memory
+    public boolean offHeap = false;
+
+    // TicketingDS records every sale and refund here, closed with the engine
+    public Journal journal = null;
+    // callers wait until their records are forced to disk
+    public boolean durable = false;
+
+    // ActorTicketingDS workers owning the routes, 0 for one per core
+    public int actorShards = 0;
+}
@@ -0,0 +1,104 @@
+package ticketingsystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * check that AsyncTicketingSystem never pins a carrier thread
+ * every engine, and TicketingDS behind both admission gates, is driven by
+ * many virtual thread clients on a few contended seats, so calls really
+ * park on seat locks, semaphores and mailboxes, while a flight recording
+ * catches jdk.VirtualThreadPinned at any duration
+ * exits with status 1 when a pinned park was recorded; needs Java 21,
+ * on older runtimes it only says that nothing was checked
+ */
+public class PinningCheck {
+    final static int clients = 10_000;
+    final static int routenum = 2;
+    final static int coachnum = 1;
+    final static int seatnum = 4;
+    final static int stationnum = 5;
+
+    public static void main(String[] args) throws IOException {
+        if (!AsyncTicketingSystem.virtualThreads()) {
+            System.out.println("virtual threads need Java 21, this is " + Runtime.version()
+                    + ", pinning was not checked");
+            return;
+        }
+
+        Path file = Files.createTempFile("pinning", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            recording.start();
+            for (Engine engine : Engine.values()) {
+                drive(engine.name().toLowerCase(), engine.create(routenum, coachnum, seatnum, stationnum, clients));
+            }
+            Options options = new Options();
+            options.admission = new Admission.PerRoute(routenum, 2);
+            drive("locked with per route admission",
+                    new TicketingDS(routenum, coachnum, seatnum, stationnum, clients, options));
+            options = new Options();
+            options.admission = new Admission.Adaptive(routenum, 1, 4, TimeUnit.MICROSECONDS.toNanos(10),
+                    TimeUnit.MILLISECONDS.toNanos(1));
+            drive("locked with adaptive admission",
+                    new TicketingDS(routenum, coachnum, seatnum, stationnum, clients, options));
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.deleteIfExists(file);
+        int pinned = 0;
+        for (RecordedEvent event : events) {
+            if (!"jdk.VirtualThreadPinned".equals(event.getEventType().getName())) continue;
+            if (++pinned > 5) continue;
+            System.out.println("pinned for " + event.getDuration().toNanos() / 1000 + "us at");
+            if (event.getStackTrace() != null) {
+                for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+                    System.out.println("    " + frame.getMethod().getType().getName() + "."
+                            + frame.getMethod().getName() + ":" + frame.getLineNumber());
+                }
+            }
+        }
+        System.out.println(pinned + " pinned parks in " + clients + " clients per engine");
+        if (pinned > 0) {
+            System.exit(1);
+        }
+    }
+
+    // every client buys, inquires and refunds its ticket through the facade
+    static void drive(String name, TicketingSystem tds) {
+        long start = System.nanoTime();
+        try (AsyncTicketingSystem async = new AsyncTicketingSystem(tds)) {
+            CompletableFuture<?>[] done = new CompletableFuture<?>[clients];
+            for (int c = 0; c < clients; ++c) {
+                int route = c % routenum + 1;
+                int departure = c % (stationnum - 1) + 1;
+                done[c] = async.buyTicketAsync("passenger" + c, route, departure, stationnum)
+                        .thenCompose(ticket -> async.inquiryAsync(route, departure, stationnum)
+                                .thenCompose(left -> ticket != null
+                                        ? async.refundTicketAsync(ticket)
+                                        : CompletableFuture.completedFuture(false)));
+            }
+            CompletableFuture.allOf(done).join();
+        }
+        if (tds instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) tds).close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        System.out.println(name + ": " + clients + " clients in " + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+}
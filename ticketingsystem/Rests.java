@@ -0,0 +1,278 @@
+package ticketingsystem;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * remaining ticket counters of one route, indexed by tour
+ */
+public abstract class Rests {
+    /**
+     * @param striped true for per-core cells, false for one atomic per tour
+     * @param tourmax how many tours
+     * @param initial remaining tickets of each tour at the beginning
+     */
+    public static Rests create(boolean striped, int tourmax, int initial) {
+        return create(striped, false, tourmax, initial);
+    }
+
+    /**
+     * @param padded with one atomic per tour, give each counter its own cache line
+     */
+    public static Rests create(boolean striped, boolean padded, int tourmax, int initial) {
+        if (striped) {
+            return new Striped(tourmax, initial);
+        } else if (padded) {
+            return new Padded(tourmax, initial);
+        } else {
+            return new Single(tourmax, initial);
+        }
+    }
+
+    public abstract void increment(int tour);
+
+    public abstract void decrement(int tour);
+
+    // n seats of the tour sold at once, seen by readers as one change
+    public abstract void subtract(int tour, int n);
+
+    // cheap read, may mix counts of racing buy and refund
+    public abstract int get(int tour);
+
+    // linearizable read
+    public abstract int exact(int tour);
+
+    /**
+     * cheap read of all tours in one sweep
+     * @param counts counts[tour - 1] is filled for tour 1 .. tourmax
+     */
+    public abstract void getAll(int[] counts);
+
+    /**
+     * linearizable read of each tour
+     * @param counts counts[tour - 1] is filled for tour 1 .. tourmax
+     */
+    public abstract void exactAll(int[] counts);
+
+    /**
+     * one atomic counter per tour, reads are always exact
+     */
+    static class Single extends Rests {
+        private final AtomicInteger[] rests;
+
+        Single(int tourmax, int initial) {
+            rests = new AtomicInteger[tourmax + 1];
+            for (int i = 1; i <= tourmax; ++i) {
+                rests[i] = new AtomicInteger(initial);
+            }
+        }
+
+        public void increment(int tour) {
+            rests[tour].incrementAndGet();
+        }
+
+        public void decrement(int tour) {
+            rests[tour].decrementAndGet();
+        }
+
+        public void subtract(int tour, int n) {
+            rests[tour].addAndGet(-n);
+        }
+
+        public int get(int tour) {
+            return rests[tour].get();
+        }
+
+        public int exact(int tour) {
+            return rests[tour].get();
+        }
+
+        public void getAll(int[] counts) {
+            for (int i = 1; i < rests.length; ++i) {
+                counts[i - 1] = rests[i].get();
+            }
+        }
+
+        public void exactAll(int[] counts) {
+            getAll(counts);
+        }
+    }
+
+    /**
+     * one counter per tour in a flat array, strided one cache line apart
+     * the AtomicInteger objects of Single are allocated back to back, so
+     * sales on neighbouring tours keep stealing each other's line
+     */
+    static class Padded extends Rests {
+        // ints of one cache line
+        private static final int STRIDE = 16;
+
+        private final int tourmax;
+        // rests[tour * STRIDE], line 0 and the last line are padding
+        private final AtomicIntegerArray rests;
+
+        Padded(int tourmax, int initial) {
+            this.tourmax = tourmax;
+            rests = new AtomicIntegerArray((tourmax + 2) * STRIDE);
+            for (int i = 1; i <= tourmax; ++i) {
+                rests.set(i * STRIDE, initial);
+            }
+        }
+
+        public void increment(int tour) {
+            rests.getAndIncrement(tour * STRIDE);
+        }
+
+        public void decrement(int tour) {
+            rests.getAndDecrement(tour * STRIDE);
+        }
+
+        public void subtract(int tour, int n) {
+            rests.getAndAdd(tour * STRIDE, -n);
+        }
+
+        public int get(int tour) {
+            return rests.get(tour * STRIDE);
+        }
+
+        public int exact(int tour) {
+            return rests.get(tour * STRIDE);
+        }
+
+        public void getAll(int[] counts) {
+            for (int i = 1; i <= tourmax; ++i) {
+                counts[i - 1] = rests.get(i * STRIDE);
+            }
+        }
+
+        public void exactAll(int[] counts) {
+            getAll(counts);
+        }
+    }
+
+    /**
+     * counters striped over per-core cells
+     * each thread updates the cells of its own stripe and a read sums up
+     * all stripes, so sales on overlapping tours stop bouncing one cache line
+     * each stripe keeps two monotonic counts per tour, sold and refunded,
+     * which allows an exact read by double collect: when two sweeps see the
+     * same sums, no cell changed in between and the sums existed together
+     * a reader which keeps losing to writers freezes the counters: new
+     * writes wait until it is done, so the few in flight finish and two
+     * sweeps are bound to agree
+     */
+    static class Striped extends Rests {
+        // longs of one cache line
+        private static final int PAD = 8;
+        // freeze the writers after so many sweeps under heavy writes
+        private static final int RETRIES = 64;
+
+        private final int tourmax;
+        private final int initial;
+        private final int mask;
+        private final int stride;
+        // cells[stripe * stride + PAD + (tour << 1)] sold
+        // cells[stripe * stride + PAD + (tour << 1) + 1] refunded
+        private final AtomicLongArray cells;
+        // readers which stopped the writers, read by every write
+        private final AtomicInteger freezers = new AtomicInteger();
+
+        Striped(int tourmax, int initial) {
+            this.tourmax = tourmax;
+            this.initial = initial;
+            int stripes = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors(), 1) * 2 - 1);
+            mask = stripes - 1;
+            // stripes are separated by one padding line
+            stride = PAD + (((tourmax + 1) * 2 + PAD - 1) / PAD) * PAD;
+            cells = new AtomicLongArray(stripes * stride + PAD);
+        }
+
+        private int base() {
+            return ((int) Thread.currentThread().getId() & mask) * stride + PAD;
+        }
+
+        public void increment(int tour) {
+            thaw();
+            cells.getAndIncrement(base() + (tour << 1) + 1);
+        }
+
+        public void decrement(int tour) {
+            thaw();
+            cells.getAndIncrement(base() + (tour << 1));
+        }
+
+        public void subtract(int tour, int n) {
+            thaw();
+            cells.getAndAdd(base() + (tour << 1), n);
+        }
+
+        // wait while a reader has frozen the counters
+        private void thaw() {
+            while (freezers.get() != 0) {
+                Thread.yield();
+            }
+        }
+
+        public int get(int tour) {
+            long sold = 0;
+            long refunded = 0;
+            for (int i = PAD + (tour << 1); i < cells.length(); i += stride) {
+                sold += cells.get(i);
+                refunded += cells.get(i + 1);
+            }
+            // cells are read at different times, never show a negative count
+            return (int) Math.max(initial - sold + refunded, 0);
+        }
+
+        public int exact(int tour) {
+            long sold = -1;
+            long refunded = -1;
+            boolean frozen = false;
+            try {
+                for (int retry = 0; ; ++retry) {
+                    if (retry == RETRIES) {
+                        freezers.incrementAndGet();
+                        frozen = true;
+                    }
+                    long s = 0;
+                    long r = 0;
+                    for (int i = PAD + (tour << 1); i < cells.length(); i += stride) {
+                        s += cells.get(i);
+                        r += cells.get(i + 1);
+                    }
+                    if (s == sold && r == refunded) {
+                        // both sweeps saw the same sums, no clamp is needed
+                        return (int) (initial - sold + refunded);
+                    }
+                    sold = s;
+                    refunded = r;
+                }
+            } finally {
+                if (frozen) freezers.decrementAndGet();
+            }
+        }
+
+        public void getAll(int[] counts) {
+            Arrays.fill(counts, 0, tourmax, initial);
+            // each stripe is one sequential run of cells
+            for (int base = PAD; base < cells.length(); base += stride) {
+                for (int tour = 1; tour <= tourmax; ++tour) {
+                    int i = base + (tour << 1);
+                    // int arithmetic may wrap on the way, the final count fits
+                    counts[tour - 1] += (int) (cells.get(i + 1) - cells.get(i));
+                }
+            }
+            for (int tour = 1; tour <= tourmax; ++tour) {
+                counts[tour - 1] = Math.max(counts[tour - 1], 0);
+            }
+        }
+
+        public void exactAll(int[] counts) {
+            for (int tour = 1; tour <= tourmax; ++tour) {
+                counts[tour - 1] = exact(tour);
+            }
+        }
+    }
+}
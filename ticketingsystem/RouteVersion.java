@@ -0,0 +1,52 @@
+package ticketingsystem;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * version stamp of one route for optimistic multi-tour reads
+ * a seqlock for many concurrent writers: the low bits of the word count
+ * the writers in flight, the high bits count the finished writes
+ * writers never wait, readers retry until they read between writes
+ */
+public final class RouteVersion {
+    private static final int WRITER_BITS = 20;
+    private static final long WRITERS = (1L << WRITER_BITS) - 1;
+    // spin this many times on a busy route before yielding
+    private static final int SPINS = 64;
+
+    private final AtomicLong word = new AtomicLong(0);
+
+    // a writer starts changing the counters of this route
+    public void begin() {
+        word.getAndIncrement();
+    }
+
+    // the writer is done, one writer less and one version more
+    public void end() {
+        word.getAndAdd(WRITERS);
+    }
+
+    /**
+     * wait until no writer is in flight
+     * @return stamp to validate the reads against
+     */
+    public long stamp() {
+        long stamp = word.get();
+        for (int spin = 0; (stamp & WRITERS) != 0; ++spin) {
+            if (spin < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+            stamp = word.get();
+        }
+        return stamp;
+    }
+
+    /**
+     * @return true if nothing was written since the stamp was taken
+     */
+    public boolean validate(long stamp) {
+        return word.get() == stamp;
+    }
+}
@@ -0,0 +1,57 @@
+package ticketingsystem;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * seat locks of one route as lock words in one flat array
+ * the words are strided one cache line apart, so taking the lock of a
+ * seat never invalidates the line holding its neighbour's lock, as the
+ * ReentrantLock objects allocated one after another do
+ * a lock is a test and test and set word, held for a few stores only,
+ * so a waiter spins a little and then yields its core to the holder
+ * a seat keeps the words and its own index, no object per lock, and the
+ * locks are not reentrant
+ */
+public final class SeatLocks {
+    // ints of one cache line
+    static final int STRIDE = 16;
+    // spins before yielding
+    private static final int SPINS = 64;
+
+    private SeatLocks() {
+    }
+
+    /**
+     * @param nomax how many seats, numbered 1 .. nomax
+     * @return lock words of the seats, line 0 and the last line are padding
+     */
+    public static AtomicIntegerArray words(int nomax) {
+        return new AtomicIntegerArray((nomax + 2) * STRIDE);
+    }
+
+    /**
+     * @return index of the lock word of seat no
+     */
+    public static int index(int no) {
+        return no * STRIDE;
+    }
+
+    public static void lock(AtomicIntegerArray words, int index) {
+        for (int spin = 0; !tryLock(words, index); ++spin) {
+            if (spin < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    public static boolean tryLock(AtomicIntegerArray words, int index) {
+        return words.get(index) == 0 && words.compareAndSet(index, 0, 1);
+    }
+
+    public static void unlock(AtomicIntegerArray words, int index) {
+        // release store, the holder's writes are visible to the next holder
+        words.lazySet(index, 0);
+    }
+}
@@ -1,6 +1,7 @@
 package ticketingsystem;
 
 import ticketingsystem.verify.Execution;
+import ticketingsystem.verify.TraceFile;
 import ticketingsystem.verify.Verifier;
 import ticketingsystem.verify.VerifyTask;
 
@@ -49,41 +50,239 @@ class Debugger {
 	// where N represents the Nth case described in config.txt
 	// M represents the Mth repeating test of case N
 
+	// true: if you also want the binary form of the dbg info,
+	// saved to /dump/caseNrepeatM.trace, see verify.TraceFile
+	public static final boolean EnableBinaryStorage = false;
+
 	// true: if you want to show the trace on console
 	public static final boolean EnableConsolePrint = false;
 
 	// true: if you want to debug or verify something
 	public static final boolean NeedDbg
-			= NeedLinearizabilityVerification | EnableStorage | EnableConsolePrint;
+			= NeedLinearizabilityVerification | EnableStorage | EnableBinaryStorage | EnableConsolePrint;
+
+	// opcodes of the binary records
+	static final int BOUGHT = 0;
+	static final int REFUNDED = 1;
+	static final int SOLD_OUT = 2;
+	static final int REFUND_ERROR = 3;
+	static final int REMAINED = 4;
+
+	/**
+	 * trace of one thread as a preallocated ring of fixed binary records
+	 * written only by its own thread without any lock, and read after the
+	 * thread is joined; beyond the capacity the oldest records are overwritten
+	 * names are kept by reference, they are the passengers' existing strings
+	 */
+	static class Buffer {
+		private static final int LONGS = 3; // pre, post, tid
+		private static final int INTS = 8; // opcode, thread, route, coach, seat, departure, arrival, left
+
+		private final int capacity;
+		private final long[] longs;
+		private final int[] ints;
+		private final String[] names;
+		// records ever added
+		private long count = 0;
+
+		Buffer(int capacity) {
+			this.capacity = Math.max(capacity, 1);
+			longs = new long[this.capacity * LONGS];
+			ints = new int[this.capacity * INTS];
+			names = new String[this.capacity];
+		}
+
+		public void add(int opcode, long pre, long post, int thread, long tid, String name,
+				int route, int coach, int seat, int departure, int arrival, int left) {
+			int slot = (int) (count++ % capacity);
+			int l = slot * LONGS;
+			longs[l] = pre;
+			longs[l + 1] = post;
+			longs[l + 2] = tid;
+			int i = slot * INTS;
+			ints[i] = opcode;
+			ints[i + 1] = thread;
+			ints[i + 2] = route;
+			ints[i + 3] = coach;
+			ints[i + 4] = seat;
+			ints[i + 5] = departure;
+			ints[i + 6] = arrival;
+			ints[i + 7] = left;
+			names[slot] = name;
+		}
+
+		int size() {
+			return (int) Math.min(count, capacity);
+		}
+
+		// slot of the k-th oldest kept record
+		int slot(int k) {
+			return (int) ((count - size() + k) % capacity);
+		}
+
+		long post(int slot) {
+			return longs[slot * LONGS + 1];
+		}
 
+		private static final Execution.Opcode[] OPCODES = {
+				Execution.Opcode.BUY,
+				Execution.Opcode.REFUND,
+				Execution.Opcode.SOLD,
+				Execution.Opcode.ERROR,
+				Execution.Opcode.INQUIRY
+		};
+
+		// the record as the verifier's execution, without going through text
+		Execution execution(int slot) {
+			int l = slot * LONGS;
+			int i = slot * INTS;
+			Execution.Opcode opcode = OPCODES[ints[i]];
+			switch (opcode) {
+				case BUY:
+				case REFUND:
+					return new Execution(longs[l], longs[l + 1], opcode, ints[i + 1], longs[l + 2], names[slot],
+							ints[i + 2], ints[i + 3], ints[i + 4], ints[i + 5], ints[i + 6]);
+				case SOLD:
+					return new Execution(longs[l], longs[l + 1], opcode, ints[i + 1],
+							ints[i + 2], ints[i + 5], ints[i + 6]);
+				case INQUIRY:
+					return new Execution(longs[l], longs[l + 1], opcode, ints[i + 1],
+							ints[i + 2], ints[i + 5], ints[i + 6], ints[i + 7]);
+				default:
+					return new Execution(longs[l], longs[l + 1], opcode, ints[i + 1]);
+			}
+		}
+
+		void write(TraceFile.Writer writer, int slot) throws IOException {
+			int l = slot * LONGS;
+			int i = slot * INTS;
+			writer.write(longs[l], longs[l + 1], OPCODES[ints[i]], ints[i + 1], longs[l + 2], names[slot],
+					ints[i + 2], ints[i + 3], ints[i + 4], ints[i + 5], ints[i + 6], ints[i + 7]);
+		}
+
+		// the record in the text format of Execution.build
+		String render(int slot) {
+			int l = slot * LONGS;
+			int i = slot * INTS;
+			String head = longs[l] + " " + longs[l + 1] + " " + ints[i + 1] + " ";
+			switch (ints[i]) {
+				case BOUGHT:
+				case REFUNDED:
+					return head + (ints[i] == BOUGHT ? "TicketBought" : "TicketRefund") + " " +
+							longs[l + 2] + " " +
+							names[slot] + " " +
+							ints[i + 2] + " " +
+							ints[i + 3] + " " +
+							ints[i + 5] + " " +
+							ints[i + 6] + " " +
+							ints[i + 4];
+				case SOLD_OUT:
+					return head + "TicketSoldOut" + " " +
+							ints[i + 2] + " " +
+							ints[i + 5] + " " +
+							ints[i + 6];
+				case REMAINED:
+					return head + "RemainTicket" + " " +
+							ints[i + 7] + " " +
+							ints[i + 2] + " " +
+							ints[i + 5] + " " +
+							ints[i + 6];
+				default:
+					return head + "ErrOfRefund";
+			}
+		}
+	}
+
+	private List<Buffer> buffers;
+	// text of the merged trace, rendered on the first get
 	private Vector<String> trace;
 	public Debugger() {
-		trace = new Vector<>();
+		buffers = new ArrayList<>();
+		trace = null;
 	}
 
 	static public Verifier verifier = new Verifier();
 
-	public void add(String rec) {
-		// add each dbg info exclusively
-		synchronized (trace) {
-			trace.add(rec);
+	/**
+	 * a new buffer for one thread, created before the threads start
+	 * @param capacity records kept, the operations of the thread
+	 */
+	public Buffer buffer(int capacity) {
+		Buffer buffer = new Buffer(capacity);
+		buffers.add(buffer);
+		return buffer;
+	}
+
+	interface Visitor {
+		void visit(Buffer buffer, int slot) throws IOException;
+	}
+
+	/**
+	 * visit the records of all threads in ascending post time, the order
+	 * in which the threads used to append to one shared trace
+	 */
+	private void merge(Visitor visitor) throws IOException {
+		int n = buffers.size();
+		int[] next = new int[n];
+		while (true) {
+			int min = -1;
+			long post = Long.MAX_VALUE;
+			for (int b = 0; b < n; ++b) {
+				Buffer buffer = buffers.get(b);
+				if (next[b] < buffer.size() && buffer.post(buffer.slot(next[b])) < post) {
+					min = b;
+					post = buffer.post(buffer.slot(next[b]));
+				}
+			}
+			if (min < 0) {
+				return;
+			}
+			Buffer buffer = buffers.get(min);
+			visitor.visit(buffer, buffer.slot(next[min]++));
 		}
 	}
 
 	public String get(int index) {
-		return trace.get(index);
+		return get().get(index);
 	}
 
 	public Vector<String> get() {
+		if (trace == null) {
+			Vector<String> rendered = new Vector<>(size());
+			try {
+				merge((buffer, slot) -> rendered.add(buffer.render(slot)));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			trace = rendered;
+		}
 		return trace;
 	}
 
+	/**
+	 * @return the merged records as the verifier's executions
+	 */
+	public List<Execution> executions() {
+		List<Execution> executions = new ArrayList<>(size());
+		try {
+			merge((buffer, slot) -> executions.add(buffer.execution(slot)));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return executions;
+	}
+
 	public int size() {
-		return trace.size();
+		int size = 0;
+		for (Buffer buffer : buffers) {
+			size += buffer.size();
+		}
+		return size;
 	}
 
 	public void reset() {
-		trace = new Vector<>();
+		buffers = new ArrayList<>();
+		trace = null;
 	}
 
 	public void dumpLocal(int c, int r) {
@@ -93,10 +292,27 @@ class Debugger {
 			File dumpfile = new File("dump/case" + c + "repeat" + r + ".txt");
 			try {
 				BufferedWriter writer = new BufferedWriter(new FileWriter(dumpfile));
-				for (String s : trace) {
-					writer.write(s);
+				merge((buffer, slot) -> {
+					writer.write(buffer.render(slot));
 					writer.newLine();
-				}
+				});
+				writer.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		} catch (SecurityException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void dumpBinary(int c, int r) {
+		File dir = new File("dump");
+		try {
+			dir.mkdir();
+			File dumpfile = new File("dump/case" + c + "repeat" + r + ".trace");
+			try {
+				TraceFile.Writer writer = new TraceFile.Writer(dumpfile.toPath());
+				merge((buffer, slot) -> buffer.write(writer, slot));
 				writer.close();
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -127,8 +343,10 @@ class Debugger {
 	}
 
 	public void dumpConsole() {
-		for (String each : trace) {
-			System.out.println(each);
+		try {
+			merge((buffer, slot) -> System.out.println(buffer.render(slot)));
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 }
@@ -139,7 +357,7 @@ class TestTask implements Runnable {
 	private final static int inqpc = 100; //inquiry ticket operation is 70% percent
 
 	private final long startTime;
-	private final TicketingDS tds;
+	private final TicketingSystem tds;
 	private static int testnum; // 10,000 - 1,000,000
 	private final int routenum; // route is designed from 1 to 3
 	private final int coachnum; // coach is arranged from 1 to 5
@@ -147,6 +365,8 @@ class TestTask implements Runnable {
 	private final int stationnum; // station is designed from 1 to 5
 
 	public static Debugger dbg = new Debugger();
+	// records of this task's thread, null without NeedDbg
+	private final Debugger.Buffer trace;
 
 	public static void reset() {
 		dbg.reset();
@@ -162,7 +382,7 @@ class TestTask implements Runnable {
 		return "passenger" + uid;
 	}
 
-	public TestTask(long start, TicketingDS ins, int test, int route, int coach, int seat, int station) {
+	public TestTask(long start, TicketingSystem ins, int test, int route, int coach, int seat, int station) {
 		startTime = start;
 		tds = ins;
 		testnum = test;
@@ -170,9 +390,11 @@ class TestTask implements Runnable {
 		coachnum = coach;
 		seatnum = seat;
 		stationnum = station;
+		trace = Debugger.NeedDbg ? dbg.buffer(test) : null;
 	}
 
 	public void run() {
+		int thread = MyThreadId.get();
 		Random rand = new Random();
 		Ticket ticket = new Ticket();
 		ArrayList<Ticket> soldTicket = new ArrayList<Ticket>();
@@ -186,33 +408,21 @@ class TestTask implements Runnable {
 					if (tds.refundTicket(ticket)) {
 						if (Debugger.NeedDbg) {
 							long postTime = System.nanoTime() - startTime;
-							String info = preTime + " " + postTime + " " +
-									MyThreadId.get() + " " +
-									"TicketRefund" + " " +
-									ticket.tid + " " +
-									ticket.passenger + " " +
-									ticket.route + " " +
-									ticket.coach  + " " +
-									ticket.departure + " " +
-									ticket.arrival + " " +
-									ticket.seat;
-							dbg.add(info);
+							trace.add(Debugger.REFUNDED, preTime, postTime, thread,
+									ticket.tid, ticket.passenger, ticket.route, ticket.coach, ticket.seat,
+									ticket.departure, ticket.arrival, 0);
 						}
 					} else {
 						if (Debugger.NeedDbg) {
-							String info = preTime + " " + (System.nanoTime() - startTime) + " " +
-									MyThreadId.get() + " " +
-									"ErrOfRefund";
-							dbg.add(info);
+							trace.add(Debugger.REFUND_ERROR, preTime, System.nanoTime() - startTime, thread,
+									0, null, 0, 0, 0, 0, 0, 0);
 						}
 					}
 				} else {
 					long preTime = System.nanoTime() - startTime;
 					if (Debugger.NeedDbg) {
-						String info = preTime + " " + (System.nanoTime() - startTime) + " " +
-								MyThreadId.get() + " " +
-								"ErrOfRefund";
-						dbg.add(info);
+						trace.add(Debugger.REFUND_ERROR, preTime, System.nanoTime() - startTime, thread,
+								0, null, 0, 0, 0, 0, 0, 0);
 					}
 				}
 			} else if (retpc <= sel && sel < buypc) { // buy ticket
@@ -225,28 +435,15 @@ class TestTask implements Runnable {
 				if ((ticket = tds.buyTicket(passenger, route, departure, arrival)) != null) {
 					if (Debugger.NeedDbg) {
 						long postTime = System.nanoTime() - startTime;
-						String info = preTime + " " + postTime + " " +
-								MyThreadId.get() + " " +
-								"TicketBought" + " " +
-								ticket.tid + " " +
-								ticket.passenger + " " +
-								ticket.route + " " +
-								ticket.coach + " " +
-								ticket.departure + " " +
-								ticket.arrival + " " +
-								ticket.seat;
-						dbg.add(info);
+						trace.add(Debugger.BOUGHT, preTime, postTime, thread,
+								ticket.tid, ticket.passenger, ticket.route, ticket.coach, ticket.seat,
+								ticket.departure, ticket.arrival, 0);
 					}
 					soldTicket.add(ticket);
 				} else {
 					if (Debugger.NeedDbg) {
-						String info = preTime + " " + (System.nanoTime() - startTime) + " " +
-								MyThreadId.get() + " " +
-								"TicketSoldOut" + " " +
-								route + " " +
-								departure+ " " +
-								arrival;
-						dbg.add(info);
+						trace.add(Debugger.SOLD_OUT, preTime, System.nanoTime() - startTime, thread,
+								0, null, route, 0, 0, departure, arrival, 0);
 					}
 				}
 			} else if (buypc <= sel && sel < inqpc) { // inquiry ticket
@@ -258,14 +455,8 @@ class TestTask implements Runnable {
 				int leftTicket = tds.inquiry(route, departure, arrival);
 				if (Debugger.NeedDbg) {
 					long postTime = System.nanoTime() - startTime;
-					String info = preTime + " " + postTime + " " +
-							MyThreadId.get() + " " +
-							"RemainTicket" + " " +
-							leftTicket + " " +
-							route+ " " +
-							departure+ " " +
-							arrival;
-					dbg.add(info);
+					trace.add(Debugger.REMAINED, preTime, postTime, thread,
+							0, null, route, 0, 0, departure, arrival, leftTicket);
 				}
 			}
 		}
@@ -275,6 +466,7 @@ class TestTask implements Runnable {
 public class Test {
 	final static String testfile = "test.txt";
 	static Integer repeat = null;
+	static Engine engine = Engine.LOCKED;
 	static Vector<Integer> testnums = null;
 	static Vector<Integer> threadnums = null;
 	static Vector<Integer> routenums = null;
@@ -305,6 +497,11 @@ public class Test {
 					if (line.startsWith("repeat=")) {
 						String sub = line.substring("repeat=".length());
 						repeat = Integer.valueOf(line.substring("repeat=".length()));
+					} else if (line.startsWith("engine=")) {
+						Engine selected = Engine.parse(line.substring("engine=".length()));
+						if (selected != null) {
+							engine = selected;
+						}
 					} else if (line.startsWith("testnum=")) {
 						String[] params = line.split(" ");
 						if (params != null) {
@@ -388,7 +585,7 @@ public class Test {
 				}
 
 				Thread[] threads = new Thread[threadnums.get(c)];
-				TicketingDS tds = new TicketingDS(
+				TicketingSystem tds = engine.create(
 						routenums.get(c),
 						coachnums.get(c),
 						seatnums.get(c),
@@ -418,17 +615,28 @@ public class Test {
 				}
 				// record past time for one repeat
 				costs.get(c).add(System.nanoTime() - startTime);
+				if (tds instanceof AutoCloseable) {
+					try {
+						((AutoCloseable) tds).close();
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
 
 				if (Debugger.EnableStorage) {
 					TestTask.dbg.dumpLocal(c, r);
 				}
 
+				if (Debugger.EnableBinaryStorage) {
+					TestTask.dbg.dumpBinary(c, r);
+				}
+
 				if (Debugger.EnableConsolePrint) {
 					TestTask.dbg.dumpConsole();
 				}
 
 				if (Debugger.EnableLinearizabilityVerification) {
-					Debugger.verifier.importTrace(TestTask.dbg.get());
+					Debugger.verifier.importExecutions(TestTask.dbg.executions());
 
 					ExecutorService executor = Executors.newCachedThreadPool();
 					VerifyTask task = new VerifyTask(Debugger.verifier);
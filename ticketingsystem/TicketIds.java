@@ -0,0 +1,46 @@
+package ticketingsystem;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * unique ticket ids of one engine, handed out to threads in blocks
+ * a thread takes BLOCK ids from the shared counter at once and then
+ * numbers its tickets from its own block, so a sale touches the shared
+ * cache line only once per BLOCK tickets
+ * ids are unique and positive but not ordered between threads
+ */
+public final class TicketIds {
+    // ids taken from the shared counter at once
+    static final int BLOCK = 1024;
+
+    private final AtomicLong next = new AtomicLong(1);
+    // {next id, end of the block} of each thread
+    private final ThreadLocal<long[]> blocks = ThreadLocal.withInitial(() -> new long[2]);
+
+    /**
+     * @return an id never returned before by this allocator
+     */
+    public long next() {
+        long[] block = blocks.get();
+        if (block[0] == block[1]) {
+            block[0] = next.getAndAdd(BLOCK);
+            block[1] = block[0] + BLOCK;
+        }
+        return block[0]++;
+    }
+
+    /**
+     * @return an id above every id handed out so far, including the unused
+     *         rest of the threads' blocks, e.g. for a snapshot
+     */
+    public long limit() {
+        return next.get();
+    }
+
+    /**
+     * never hand out ids up to last, e.g. the ones of restored tickets
+     */
+    public void skip(long last) {
+        next.accumulateAndGet(last + 1, Math::max);
+    }
+}
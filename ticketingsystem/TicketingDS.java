@@ -1,27 +1,63 @@
 package ticketingsystem;
 
-import java.util.*;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-public class TicketingDS implements TicketingSystem {
-    private final AtomicLong tid;
+public class TicketingDS implements TicketingSystem, AutoCloseable {
+    // "TKS1" and the layout version of snapshot files
+    private static final int SNAPSHOT_MAGIC = 0x544B5331;
+    private static final int SNAPSHOT_VERSION = 2;
+
+    private final TicketIds tid;
     private final int routemax;
     private final int coachmax;
     private final int seatmax;
     private final int stationmax;
 
     private final int maxCoachAndSeat;
-    private final int maxTourAndNo;
 
     private final int tourmax;
     private final int nomax;
-    private final Semaphore windows;
+    private final Admission admission;
+    private final boolean stripedCounters;
+    private final boolean exactInquiry;
+    private final boolean versioned;
+    private final boolean combining;
+    private final boolean paddedLayout;
+    // null when purely in memory
+    private final Journal journal;
+    private final boolean durable;
+    // end of the last record appended by or for each thread, null unless durable
+    private final ThreadLocal<long[]> written;
+    // null unless Latency.ENABLED
+    private final Latency latency = Latency.ENABLED ? new Latency() : null;
+    // null unless Contention.ENABLED
+    private final Contention contention;
+
+    // shared by all routes
+    // speed up the masking
+    private final TourTable table;
+    private final int[][] collision;
     public TicketingDS(int routenum, int coachnum, int seatnum, int stationnum, int threadnum) {
-        tid = new AtomicLong(0);
+        this(routenum, coachnum, seatnum, stationnum, threadnum, new Options());
+    }
+
+    public TicketingDS(int routenum, int coachnum, int seatnum, int stationnum, int threadnum, Options options) {
+        tid = new TicketIds();
         routemax = routenum;
         coachmax = coachnum;
         seatmax = seatnum;
@@ -29,107 +65,536 @@ public class TicketingDS implements TicketingSystem {
 
         maxCoachAndSeat = Math.max(coachmax, seatmax);
 
+        table = TourTable.of(stationmax);
+        collision = table.collision;
+        contention = Contention.ENABLED ? new Contention(routemax, table) : null;
         /// how many tours in total (only single direction)
-        tourmax = (stationmax * (stationmax - 1)) >> 1;
+        tourmax = table.tourmax;
         // how many No. in total
         nomax = (coachmax - 1) * maxCoachAndSeat + seatmax;
-        maxTourAndNo = Math.max(tourmax, nomax);
 
-        windows = new Semaphore(threadnum);
+        admission = options.admission;
+        stripedCounters = options.stripedCounters;
+        exactInquiry = options.exactInquiry;
+        versioned = options.versionedRoutes;
+        combining = options.combining;
+        paddedLayout = options.paddedLayout;
+        journal = options.journal;
+        durable = options.durable && journal != null;
+        written = durable ? ThreadLocal.withInitial(() -> new long[1]) : null;
 
         initRoutes();
-    }
-
-    static private class NoAndTicket {
-        public int no;
-        public long ticket;
-        public NoAndTicket(int no, long ticket) {
-            this.no = no;
-            this.ticket = ticket;
+        if (options.hotRoutes != null) {
+            prewarm(options.hotRoutes);
         }
     }
 
     public Ticket buyTicket(String passenger, int route, int departure, int arrival) {
+        Ticket ticket = new Ticket();
+        return buyTicket(ticket, passenger, route, departure, arrival) ? ticket : null;
+    }
+
+    /**
+     * allocation free variant of buyTicket
+     * @param ticket caller's reusable ticket, filled only when bought
+     * @return true when bought
+     */
+    public boolean buyTicket(Ticket ticket, String passenger, int route, int departure, int arrival) {
+        if (passenger == null) return false;
+        if (route <= 0 || route > routemax) return false;
+        if (departure <= 0 || departure > stationmax) return false;
+        if (arrival <= 0 || arrival > stationmax) return false;
+        if (departure >= arrival) return false;
+
+        long start = Latency.ENABLED ? System.nanoTime() : 0;
+        TicketingEvents.Buy event = null;
+        if (TicketingEvents.ENABLED) {
+            event = new TicketingEvents.Buy();
+            event.begin();
+        }
+        long token = -1;
         try {
+            // a shed call is timed and recorded like any other
+            token = enter(route);
+            if (token < 0) {
+                if (TicketingEvents.ENABLED) event.rejected = true;
+                return false;
+            }
+            // buy one ticket
+            int tourid = hashTour(departure, arrival);
+            int no = route(route).acquire(tourid, passenger, ticket, event);
+            if (no == 0) {
+                return false;
+            }
+            if (Contention.ENABLED) contention.sold(route, tourid);
+            if (TicketingEvents.ENABLED) {
+                event.coach = getCoach(no);
+                event.seat = getSeat(no);
+            }
+            ticket.passenger = passenger;
+            ticket.route = route;
+            ticket.coach = getCoach(no);
+            ticket.seat = getSeat(no);
+            ticket.departure = departure;
+            ticket.arrival = arrival;
+            awaitDurable();
+            return true;
+        } finally {
+            if (token >= 0) admission.exit(route, token);
+            if (Latency.ENABLED) latency.record(Latency.BUY, start);
+            if (TicketingEvents.ENABLED) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.route = route;
+                    event.departure = departure;
+                    event.arrival = arrival;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    /**
+     * seat a party in one coach with one pass over the coach's seats
+     * @return tickets in the order of passengers, null if the party can not be seated
+     */
+    @Override
+    public Ticket[] buyTickets(String[] passengers, int route, int departure, int arrival, boolean adjacent) {
+        if (passengers == null || passengers.length == 0 || passengers.length > seatmax) return null;
+        for (String passenger : passengers) {
             if (passenger == null) return null;
-            if (route <= 0 || route > routemax) return null;
-            if (departure <= 0 || departure > stationmax) return null;
-            if (arrival <= 0 || arrival > stationmax) return null;
-            if (departure >= arrival) return null;
+        }
+        if (route <= 0 || route > routemax) return null;
+        if (departure <= 0 || departure > stationmax) return null;
+        if (arrival <= 0 || arrival > stationmax) return null;
+        if (departure >= arrival) return null;
 
-            windows.acquire();
-            // buy one ticket
-            NoAndTicket res = routes[route].acquire(hashTour(departure, arrival), passenger);
-            if (res == null) {
+        long token = enter(route);
+        if (token < 0) return null;
+        try {
+            int n = passengers.length;
+            Ticket[] tickets = new Ticket[n];
+            for (int i = 0; i < n; ++i) {
+                tickets[i] = new Ticket();
+            }
+            int[] nos = new int[n];
+            if (!route(route).acquireGroup(hashTour(departure, arrival), passengers, adjacent, tickets, nos)) {
                 return null;
-            } else {
-                Ticket ticket = new Ticket();
-                ticket.tid = res.ticket;
-                ticket.passenger = passenger;
-                ticket.route = route;
-                ticket.coach = getCoach(res.no);
-                ticket.seat = getSeat(res.no);
-                ticket.departure = departure;
-                ticket.arrival = arrival;
-                return ticket;
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            return null;
+            for (int i = 0; i < n; ++i) {
+                tickets[i].passenger = passengers[i];
+                tickets[i].route = route;
+                tickets[i].coach = getCoach(nos[i]);
+                tickets[i].seat = getSeat(nos[i]);
+                tickets[i].departure = departure;
+                tickets[i].arrival = arrival;
+            }
+            awaitDurable();
+            return tickets;
         } finally {
-            windows.release();
+            admission.exit(route, token);
         }
     }
 
     public int inquiry(int route, int departure, int arrival) {
-        try {
-            if (route <= 0 || route > routemax) return -1;
-            if (departure <= 0 || departure > stationmax) return -1;
-            if (arrival <= 0 || arrival > stationmax) return -1;
-            if (departure >= arrival) return -1;
+        if (route <= 0 || route > routemax) return -1;
+        if (departure <= 0 || departure > stationmax) return -1;
+        if (arrival <= 0 || arrival > stationmax) return -1;
+        if (departure >= arrival) return -1;
 
-            windows.acquire();
+        long start = Latency.ENABLED ? System.nanoTime() : 0;
+        TicketingEvents.Inquiry event = null;
+        if (TicketingEvents.ENABLED) {
+            event = new TicketingEvents.Inquiry();
+            event.begin();
+        }
+        long token = -1;
+        try {
+            token = enter(route);
+            if (token < 0) {
+                if (TicketingEvents.ENABLED) event.rejected = true;
+                return -1;
+            }
             // inquiry amount of the rest tickets
-            return routes[route].count(hashTour(departure, arrival));
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            return -1;
+            RouteInfo info = routes.get(route);
+            // nothing was ever sold on an untouched route
+            int remaining = info == null ? nomax : info.count(hashTour(departure, arrival));
+            if (TicketingEvents.ENABLED) event.remaining = remaining;
+            return remaining;
+        } finally {
+            if (token >= 0) admission.exit(route, token);
+            if (Latency.ENABLED) latency.record(Latency.INQUIRY, start);
+            if (TicketingEvents.ENABLED) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.route = route;
+                    event.departure = departure;
+                    event.arrival = arrival;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    /**
+     * remaining tickets of several tours of one route at one moment
+     * with Options.versionedRoutes no sale is seen half applied,
+     * otherwise the tours are counted one by one
+     * @param departures departure of each tour
+     * @param arrivals arrival of each tour
+     * @param counts filled with the remaining tickets of each tour
+     * @return false for illegal arguments
+     */
+    @Override
+    public boolean inquiry(int route, int[] departures, int[] arrivals, int[] counts) {
+        if (route <= 0 || route > routemax) return false;
+        if (departures == null || arrivals == null || counts == null) return false;
+        int n = departures.length;
+        if (arrivals.length != n || counts.length < n) return false;
+        int[] tourids = new int[n];
+        for (int i = 0; i < n; ++i) {
+            if (departures[i] <= 0 || departures[i] > stationmax) return false;
+            if (arrivals[i] <= 0 || arrivals[i] > stationmax) return false;
+            if (departures[i] >= arrivals[i]) return false;
+            tourids[i] = hashTour(departures[i], arrivals[i]);
+        }
+
+        long token = enter(route);
+        if (token < 0) return false;
+        try {
+            RouteInfo info = routes.get(route);
+            if (info == null) {
+                Arrays.fill(counts, 0, n, nomax);
+            } else {
+                info.counts(tourids, n, counts);
+            }
+            return true;
+        } finally {
+            admission.exit(route, token);
+        }
+    }
+
+    public boolean inquiryAll(int route, int[] counts) {
+        if (route <= 0 || route > routemax) return false;
+        if (counts == null || counts.length < tourmax) return false;
+
+        long token = enter(route);
+        if (token < 0) return false;
+        try {
+            RouteInfo info = routes.get(route);
+            if (info == null) {
+                Arrays.fill(counts, 0, tourmax, nomax);
+            } else {
+                info.countAll(counts);
+            }
+            return true;
         } finally {
-            windows.release();
+            admission.exit(route, token);
         }
     }
 
     public boolean refundTicket(Ticket ticket) {
+        if (ticket.passenger == null) return false;
+        if (ticket.route <= 0 || ticket.route > routemax) return false;
+        if (ticket.departure <= 0 || ticket.departure > stationmax) return false;
+        if (ticket.arrival <= 0 || ticket.arrival > stationmax) return false;
+        if (ticket.departure >= ticket.arrival) return false;
+        if (ticket.coach <= 0 || ticket.coach > coachmax) return false;
+        if (ticket.seat <= 0 || ticket.seat > seatmax) return false;
+
+        long start = Latency.ENABLED ? System.nanoTime() : 0;
+        TicketingEvents.Refund event = null;
+        if (TicketingEvents.ENABLED) {
+            event = new TicketingEvents.Refund();
+            event.begin();
+        }
+        long token = -1;
         try {
-            if (ticket.passenger == null) return false;
-            if (ticket.route <= 0 || ticket.route > routemax) return false;
-            if (ticket.departure <= 0 || ticket.departure > stationmax) return false;
-            if (ticket.arrival <= 0 || ticket.arrival > stationmax) return false;
-            if (ticket.departure >= ticket.arrival) return false;
-            if (ticket.coach <= 0 || ticket.coach > coachmax) return false;
-            if (ticket.seat <= 0 || ticket.seat > seatmax) return false;
-
-            windows.acquire();
+            token = enter(ticket.route);
+            if (token < 0) {
+                if (TicketingEvents.ENABLED) event.rejected = true;
+                return false;
+            }
             // refund one ticket
-            return routes[ticket.route].release(
+            RouteInfo info = routes.get(ticket.route);
+            boolean refunded = info != null && info.release(
                     ticket.tid,
                     hashTour(ticket.departure, ticket.arrival),
                     hashNo(ticket.coach, ticket.seat),
                     ticket.passenger);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            return false;
+            if (refunded) {
+                awaitDurable();
+            }
+            if (Contention.ENABLED) contention.add(ticket.route, refunded ? Contention.REFUNDS : Contention.MISSES, 1);
+            if (TicketingEvents.ENABLED) event.refunded = refunded;
+            return refunded;
         } finally {
-            windows.release();
+            if (token >= 0) admission.exit(ticket.route, token);
+            if (Latency.ENABLED) latency.record(Latency.REFUND, start);
+            if (TicketingEvents.ENABLED) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.route = ticket.route;
+                    event.departure = ticket.departure;
+                    event.arrival = ticket.arrival;
+                    event.coach = ticket.coach;
+                    event.seat = ticket.seat;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    /**
+     * write a snapshot of every route while sales go on
+     * each seat is copied under its own lock, so every seat is exact at its
+     * own moment; replaying the journal from the returned position brings
+     * them all to one, records a seat has already seen are skipped by its lsn
+     * layout, little endian: magic, version, routenum, coachnum, seatnum,
+     * stationnum, long journal position, long tid limit, then for every route int 1 if it was
+     * ever touched, and for every seat of a touched route long lsn, int tickets
+     * and for each ticket int tour, long tid, int name length and the name as UTF-16
+     * @return journal position to replay from, 0 without a journal
+     */
+    public long snapshot(Path file) throws IOException {
+        long from = journal != null ? journal.position() : 0;
+        // tids taken after this are sold into the journal after from
+        long limit = tid.limit();
+        int[] heldTours = new int[stationmax];
+        long[] heldTids = new long[stationmax];
+        String[] heldNames = new String[stationmax];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION)
+                    .putInt(routemax).putInt(coachmax).putInt(seatmax).putInt(stationmax)
+                    .putLong(from).putLong(limit);
+            for (int r = 1; r <= routemax; ++r) {
+                RouteInfo info = routes.get(r);
+                buffer = reserve(buffer, 4, channel);
+                buffer.putInt(info == null ? 0 : 1);
+                if (info == null) continue;
+                for (int no = 1; no <= nomax; ++no) {
+                    RouteInfo.SeatInfo seat = info.tours[no];
+                    // copy under the lock, write outside of it
+                    seat.lock();
+                    long lsn = seat.lsn;
+                    int held = seat.held;
+                    if (held > 0) {
+                        System.arraycopy(seat.heldTours, 0, heldTours, 0, held);
+                        System.arraycopy(seat.heldTids, 0, heldTids, 0, held);
+                        System.arraycopy(seat.heldNames, 0, heldNames, 0, held);
+                    }
+                    seat.unlock();
+
+                    int size = 12;
+                    for (int i = 0; i < held; ++i) {
+                        size += 16 + 2 * heldNames[i].length();
+                    }
+                    buffer = reserve(buffer, size, channel);
+                    buffer.putLong(lsn).putInt(held);
+                    for (int i = 0; i < held; ++i) {
+                        buffer.putInt(heldTours[i]).putLong(heldTids[i]).putInt(heldNames[i].length());
+                        for (int c = 0; c < heldNames[i].length(); ++c) {
+                            buffer.putChar(heldNames[i].charAt(c));
+                        }
+                    }
+                }
+            }
+            drain(buffer, channel);
+            channel.force(true);
+        }
+        return from;
+    }
+
+    // room for size more bytes, written out or grown when full
+    private static ByteBuffer reserve(ByteBuffer buffer, int size, FileChannel channel) throws IOException {
+        if (buffer.remaining() >= size) return buffer;
+        drain(buffer, channel);
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return buffer;
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * rebuild an engine from a snapshot and the journal written after it
+     * the snapshot is mapped and read once and only the journal tail is
+     * replayed, so a restart costs the snapshot size, not the history
+     * @param options options of the new engine, a journal there is replayed
+     *                from the snapshot's position and then appended to
+     */
+    public static TicketingDS restore(Path file, int threadnum, Options options) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION) {
+            throw new IOException(file + " is not a ticket snapshot");
+        }
+        int routenum = buffer.getInt();
+        int coachnum = buffer.getInt();
+        int seatnum = buffer.getInt();
+        int stationnum = buffer.getInt();
+        long from = buffer.getLong();
+        long limit = buffer.getLong();
+
+        TicketingDS tds = new TicketingDS(routenum, coachnum, seatnum, stationnum, threadnum, options);
+        Restorer restorer = tds.new Restorer();
+        char[] chars = new char[16];
+        for (int r = 1; r <= tds.routemax; ++r) {
+            if (buffer.getInt() == 0) continue;
+            RouteInfo info = tds.route(r);
+            for (int no = 1; no <= tds.nomax; ++no) {
+                info.tours[no].lsn = buffer.getLong();
+                int held = buffer.getInt();
+                for (int i = 0; i < held; ++i) {
+                    int tour = buffer.getInt();
+                    long ticket = buffer.getLong();
+                    int length = buffer.getInt();
+                    if (chars.length < length) {
+                        chars = new char[length];
+                    }
+                    for (int c = 0; c < length; ++c) {
+                        chars[c] = buffer.getChar();
+                    }
+                    restorer.load(r, no, tour, ticket, new String(chars, 0, length));
+                }
+            }
+        }
+        if (tds.journal != null) {
+            tds.journal.replay(from, restorer);
+        }
+        // refunded tickets and unused blocks left no trace but the limit
+        tds.tid.skip(Math.max(limit - 1, restorer.last));
+        return tds;
+    }
+
+    /**
+     * applies restored tickets without the seat locks, only used
+     * before the restored engine is handed out
+     */
+    private class Restorer implements Journal.Replay {
+        // largest tid restored or seen in the journal
+        long last = 0;
+
+        void load(int r, int no, int tour, long ticket, String name) {
+            RouteInfo route = route(r);
+            RouteInfo.SeatInfo seat = route.tours[no];
+            for (int t : collision[tour]) {
+                if (seat.vector[t] == 0) {
+                    route.rests.decrement(t);
+                    route.free.clear(t, no);
+                }
+                ++seat.vector[t];
+            }
+            seat.hold(tour, ticket, name);
+            last = Math.max(last, ticket);
+        }
+
+        public void buy(long pos, long ticket, int route, int no, int tour, String name) {
+            last = Math.max(last, ticket);
+            if (!legal(route, no, tour)) return;
+            RouteInfo.SeatInfo seat = route(route).tours[no];
+            // already in the snapshot
+            if (pos < seat.lsn) return;
+            load(route, no, tour, ticket, name);
+            seat.lsn = pos + 1;
+        }
+
+        public void refund(long pos, long ticket, int route, int no, int tour) {
+            last = Math.max(last, ticket);
+            if (!legal(route, no, tour)) return;
+            RouteInfo rinfo = route(route);
+            RouteInfo.SeatInfo seat = rinfo.tours[no];
+            if (pos < seat.lsn) return;
+            int pass = seat.find(tour);
+            if (pass < 0 || seat.heldTids[pass] != ticket) return;
+            for (int t : collision[tour]) {
+                --seat.vector[t];
+                if (seat.vector[t] == 0) {
+                    rinfo.rests.increment(t);
+                    rinfo.free.set(t, no);
+                }
+            }
+            seat.drop(pass);
+            seat.lsn = pos + 1;
+        }
+
+        private boolean legal(int route, int no, int tour) {
+            return route > 0 && route <= routemax && no > 0 && no <= nomax && tour > 0 && tour <= tourmax;
+        }
+    }
+
+    /**
+     * close the journal, if any, and unregister the contention counters
+     */
+    public void close() {
+        if (journal != null) {
+            journal.close();
+        }
+        if (contention != null) {
+            contention.close();
+        }
+    }
+
+    /**
+     * @return contention counters, null unless Contention.ENABLED
+     */
+    public Contention contention() {
+        return contention;
+    }
+
+    /**
+     * @return latencies recorded so far, null unless Latency.ENABLED
+     */
+    public Latency.Snapshot latency() {
+        return latency != null ? latency.snapshot() : null;
+    }
+
+    // with Options.durable, wait until the records of this operation are on disk,
+    // not for the ones other threads appended meanwhile
+    private void awaitDurable() {
+        if (durable) {
+            journal.await(written.get()[0]);
+        }
+    }
+
+    // note a record appended at pos for the current operation; the committer
+    // forces a long name's continuations together with its head, so the head's
+    // end is enough, and a thread's records only grow, so the last is enough
+    private void wrote(long pos) {
+        if (durable) {
+            written.get()[0] = pos + Journal.RECORD;
         }
     }
 
-    public static class TidAndPassenger {
-        public long tid;
-        public String name;
-        public TidAndPassenger(long tid, String name) {
-            this.tid = tid;
-            this.name = name;
+    /**
+     * pass the admission control of the route
+     * @return token for exit, negative if the call was shed or interrupted
+     */
+    private long enter(int route) {
+        try {
+            if (Latency.ENABLED || Contention.ENABLED) {
+                long start = System.nanoTime();
+                long token = admission.enter(route);
+                if (Latency.ENABLED) latency.record(Latency.ADMISSION, start);
+                if (Contention.ENABLED) contention.admitted(route, System.nanoTime() - start);
+                return token;
+            }
+            return admission.enter(route);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            return -1;
         }
     }
 
@@ -144,15 +609,45 @@ public class TicketingDS implements TicketingSystem {
     // --------------------
     // <R 1><R 2><...><R 4>
     public class RouteInfo {
-        public RouteInfo() {
+        private final int route;
+
+        public RouteInfo(int route) {
+            this.route = route;
             // initial tour index table
             initTours();
         }
 
         public class SeatInfo {
-            public SeatInfo() {
+            /**
+             * @param words lock words of the route when padded, otherwise null
+             *              for a ReentrantLock of its own
+             * @param no numero of this seat
+             */
+            public SeatInfo(AtomicIntegerArray words, int no) {
                 vector = new short[tourmax + 1];
-                lock = new ReentrantLock();
+                this.words = words;
+                this.word = SeatLocks.index(no);
+                this.mutex = words == null ? new ReentrantLock() : null;
+            }
+
+            private void lock() {
+                if (words != null) {
+                    SeatLocks.lock(words, word);
+                } else {
+                    mutex.lock();
+                }
+            }
+
+            private boolean tryLock() {
+                return words != null ? SeatLocks.tryLock(words, word) : mutex.tryLock();
+            }
+
+            private void unlock() {
+                if (words != null) {
+                    SeatLocks.unlock(words, word);
+                } else {
+                    mutex.unlock();
+                }
             }
 
             /**
@@ -161,197 +656,593 @@ public class TicketingDS implements TicketingSystem {
              * @param no numero of wanted seat
              * @param name passenger's name
              * @param mask other seats relative with this seats would also be marked
-             * @return bought ticket if not null
+             * @param res filled with the tid when bought
+             * @return true when bought
              */
-            public NoAndTicket or(int tourid, int no, String name, Set<Integer> mask) {
+            public boolean or(int tourid, int no, String name, int[] mask, Ticket res) {
                 // atomic buy method
-                lock.lock(); // locked only at seat
+                lockSeat(no); // locked only at seat
                 if (vector[tourid] > 0) {
                     // some thread competes with current thread successfully
                     // this thread would go back and try again
-                    lock.unlock();
-                    return null;
+                    unlock();
+                    return false;
                 }
                 // current thread has hold this seat successfully
+                begin();
+                mark(tourid, no, name, mask, res, null);
+                end();
+
+                unlock(); // linearizable position for each succeed ticket bought
+                return true;
+            }
+
+            // lock seat no, timing the wait with Latency.ENABLED, counting it with
+            // Contention.ENABLED and recording it with TicketingEvents.ENABLED
+            private void lockSeat(int no) {
+                if (Latency.ENABLED || Contention.ENABLED || TicketingEvents.ENABLED) {
+                    long start = Latency.ENABLED ? System.nanoTime() : 0;
+                    if (!tryLock()) {
+                        if (Contention.ENABLED) contention.add(route, Contention.LOCK_WAITS, 1);
+                        if (TicketingEvents.ENABLED) {
+                            TicketingEvents.SeatLock event = new TicketingEvents.SeatLock();
+                            event.begin();
+                            lock();
+                            event.end();
+                            if (event.shouldCommit()) {
+                                event.route = route;
+                                event.coach = getCoach(no);
+                                event.seat = getSeat(no);
+                                event.commit();
+                            }
+                        } else {
+                            lock();
+                        }
+                    }
+                    if (Latency.ENABLED) latency.record(Latency.SEAT_LOCK, start);
+                } else {
+                    lock();
+                }
+            }
+
+            /**
+             * sell the empty cell of this seat, the caller holds the lock
+             * @param sold null to count the sale at once, otherwise counted
+             *             up per tour for the caller to subtract in one go
+             */
+            private void mark(int tourid, int no, String name, int[] mask, Ticket res, int[] sold) {
                 for (int tour : mask) {
                     // mark all seats in the collision filed
                     if (vector[tour] == 0) {
-                        rests[tour].decrementAndGet();
+                        if (sold != null) {
+                            ++sold[tour];
+                        } else {
+                            rests.decrement(tour);
+                        }
+                        free.clear(tour, no);
                     }
                     ++vector[tour];
                 }
-                // fetch the unique tid
-                long ticket = tid.incrementAndGet();
+                // fetch the unique tid from this thread's block
+                long ticket = tid.next();
 
                 // record passenger and tid at current seat
-                passengers[hashPass(tourid, no)] = new TidAndPassenger(ticket, name);
-
-                lock.unlock(); // linearizable position for each succeed ticket bought
-                return new NoAndTicket(no, ticket);
+                hold(tourid, ticket, name);
+                if (journal != null) {
+                    long pos = journal.buy(ticket, route, no, tourid, name);
+                    lsn = pos + 1;
+                    wrote(pos);
+                }
+                res.tid = ticket;
             }
 
             /**
              * refund bought ticket
              * @param ticket
-             * @param pass
+             * @param tourid
              * @param no
              * @param name
              * @param mask
              * @return true for bought ticket, otherwise false
              */
-            public boolean xor(long ticket, int pass, int no, String name, Set<Integer> mask) {
-                lock.lock();
+            public boolean xor(long ticket, int tourid, int no, String name, int[] mask) {
+                lockSeat(no);
                 // ticket info dose not match
-                if (passengers[pass] == null) {
-                    lock.unlock();
+                int pass = find(tourid);
+                if (pass < 0) {
+                    unlock();
                     return false;
                 }
-                if (passengers[pass].tid != ticket || !Objects.equals(passengers[pass].name, name)) {
-                    lock.unlock();
+                if (heldTids[pass] != ticket || !Objects.equals(heldNames[pass], name)) {
+                    unlock();
                     return false;
                 }
 
+                begin();
                 for (int tour : mask) {
                     --vector[tour];
                     if (vector[tour] == 0) {
-                        rests[tour].incrementAndGet();
-                        empty[tour].set(no);
+                        rests.increment(tour);
+                        free.set(tour, no);
                     }
                 }
-                passengers[pass] = null;
+                end();
+                drop(pass);
+                if (journal != null) {
+                    long pos = journal.refund(ticket, route, no, tourid);
+                    lsn = pos + 1;
+                    wrote(pos);
+                }
 
-                lock.unlock();
+                unlock();
                 return true;
             }
 
-            // @key hashed index of which tour e.g. <1,2> = 1 <1,3> = 2
-            public boolean empty(int key) {
-                return vector[key] == 0;
+            // index of the held ticket of this tour, -1 if none
+            private int find(int tourid) {
+                for (int i = 0; i < held; ++i) {
+                    if (heldTours[i] == tourid) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+
+            private void hold(int tourid, long ticket, String name) {
+                if (heldTours == null || held == heldTours.length) {
+                    // tickets on one seat never overlap, so stationmax - 1 is enough
+                    int capacity = heldTours == null ? Math.min(2, stationmax - 1)
+                            : Math.min(heldTours.length << 1, stationmax - 1);
+                    heldTours = heldTours == null ? new int[capacity] : Arrays.copyOf(heldTours, capacity);
+                    heldTids = heldTids == null ? new long[capacity] : Arrays.copyOf(heldTids, capacity);
+                    heldNames = heldNames == null ? new String[capacity] : Arrays.copyOf(heldNames, capacity);
+                }
+                heldTours[held] = tourid;
+                heldTids[held] = ticket;
+                heldNames[held] = name;
+                ++held;
+            }
+
+            private void drop(int pass) {
+                --held;
+                heldTours[pass] = heldTours[held];
+                heldTids[pass] = heldTids[held];
+                heldNames[pass] = heldNames[held];
+                heldNames[held] = null;
             }
 
             // each element referred to a cell
             // true: sold
             // false: empty
             private volatile short[] vector = null;
-            private Lock lock = null;
+            // the lock word words[word], or the mutex when words is null
+            private final AtomicIntegerArray words;
+            private final int word;
+            private final ReentrantLock mutex;
+
+            // tickets held by this seat, at most one per tour
+            // allocated on the first sale and grown on demand
+            private int held = 0;
+            private int[] heldTours = null;
+            private long[] heldTids = null;
+            private String[] heldNames = null;
+
+            // journal position of the last sale or refund on this seat plus one, 0 for none
+            private long lsn = 0;
         }
         // dynamic records
         private SeatInfo[] tours = null;
-        private TidAndPassenger[] passengers = null;
-
-        // initialize only once
-        // speed up the masking
-        private Set<Integer>[] collison = null;
 
         // speed up the inquiry
-        private AtomicInteger[] rests = null;
-        private AtomicInteger[] empty = null;
+        private Rests rests = null;
+        // speed up finding an empty seat
+        private FreeSeatIndex free = null;
+        // bumped once per sale or refund, null unless versioned
+        private RouteVersion version = null;
+        // applies published buys and refunds in batches, null unless combining
+        private Combiner combiner = null;
 
         private void initTours() {
             tours = new SeatInfo[nomax + 1];
+            // lock words one cache line apart when padded
+            AtomicIntegerArray words = paddedLayout ? SeatLocks.words(nomax) : null;
             for (int i = 1; i <= nomax; ++i) {
-                tours[i] = new SeatInfo();
+                tours[i] = new SeatInfo(words, i);
+            }
+
+            rests = Rests.create(stripedCounters, paddedLayout, tourmax, nomax);
+            free = new FreeSeatIndex(tourmax, nomax, paddedLayout);
+            if (versioned) {
+                version = new RouteVersion();
             }
-            passengers = new TidAndPassenger[tourmax * maxTourAndNo + 1];
+            if (combining) {
+                combiner = new Combiner();
+            }
+        }
 
-            collison = new Set[tourmax + 1];
-            for (int i = 1; i <= tourmax; ++i) {
-                collison[i] = new HashSet<>();
-                for (int j = 1; j <= tourmax; ++j) {
-                    collison[i].add(j);
+        private void begin() {
+            if (version != null) version.begin();
+        }
+
+        private void end() {
+            if (version != null) version.end();
+        }
+
+        /**
+         * buy one ticket of this tour
+         * @param res filled with the tid when bought
+         * @param event given the probe count, null unless TicketingEvents.ENABLED
+         * @return numero of the bought seat, 0 when sold out
+         */
+        public int acquire(int tourid, String name, Ticket res, TicketingEvents.Buy event) {
+            if (combiner != null) {
+                int no = combiner.buy(tourid, name, res);
+                if (no >= 0) {
+                    return no;
                 }
+                // every slot is busy, buy directly
             }
-            // initialize collision table
-            for (int dep = 1; dep <= stationmax; ++dep) {
-                for (int arr = dep + 1; arr <= stationmax; ++arr) {
-                    int key = hashTour(dep, arr);
-                    // release left part
-                    for (int i = 1; i < dep; ++i) {
-                        for (int j = i + 1; j <= dep; ++j) {
-                            collison[key].remove(hashTour(i, j));
-                        }
+            long start = Latency.ENABLED ? System.nanoTime() : 0;
+            try {
+                return probe(tourid, name, res, event);
+            } finally {
+                if (Latency.ENABLED) latency.record(Latency.PROBE, start);
+            }
+        }
+
+        // try empty looking seats until one is bought or the tour is sold out
+        private int probe(int tourid, String name, Ticket res, TicketingEvents.Buy event) {
+            // seats tried and index misses, counted once at the end
+            int probes = 0;
+            int stale = 0;
+            int no = 0;
+            // a striped sum may read 0 while seats are free, so sold out
+            // is confirmed by the exact count
+            while (rests.get(tourid) > 0 || rests.exact(tourid) > 0) {
+                // threads start at random seats to spread over the train
+                no = free.find(tourid, ThreadLocalRandom.current().nextInt(nomax));
+                if (no == 0) {
+                    // the index is a moment behind the counters
+                    ++stale;
+                    Thread.onSpinWait();
+                    continue;
+                }
+                ++probes;
+                if (tours[no].or(tourid, no, name, collision[tourid], res)) {
+                    break;
+                }
+                // some thread competes with current thread successfully
+                no = 0;
+            }
+            if (Contention.ENABLED) {
+                contention.add(route, Contention.PROBES, probes);
+                contention.add(route, Contention.LOST, no == 0 ? probes : probes - 1);
+                if (stale > 0) contention.add(route, Contention.STALE, stale);
+            }
+            if (TicketingEvents.ENABLED && event != null) event.probes = probes;
+            // 0 when sold out
+            return no;
+        }
+
+        /**
+         * seat a party in one coach, all or nothing
+         * seats of a coach are locked in ascending order and kept locked
+         * until the party fits, so each seat is synchronized only once
+         * @param names passengers of the party
+         * @param adjacent true if the seats must also be consecutive
+         * @param res filled with the tids when bought
+         * @param nos filled with the numeros of the bought seats
+         * @return true when the whole party is seated
+         */
+        public boolean acquireGroup(int tourid, String[] names, boolean adjacent, Ticket[] res, int[] nos) {
+            int n = names.length;
+            int first = ThreadLocalRandom.current().nextInt(coachmax);
+            for (int c = 0; c < coachmax && (rests.get(tourid) >= n || rests.exact(tourid) >= n); ++c) {
+                int coach = (first + c) % coachmax + 1;
+                int size = 0;
+                for (int seat = 1; seat <= seatmax && size < n; ++seat) {
+                    if (seatmax - seat + 1 < n - size) {
+                        break; // not enough seats left in this coach
                     }
-                    // release right part
-                    for (int i = arr; i <= stationmax; ++i) {
-                        for (int j = i + 1; j <= stationmax; ++j) {
-                            collison[key].remove(hashTour(i, j));
+                    int no = hashNo(coach, seat);
+                    SeatInfo info = tours[no];
+                    if (info.vector[tourid] == 0) {
+                        info.lock();
+                        if (info.vector[tourid] == 0) {
+                            nos[size++] = no;
+                            continue;
                         }
+                        info.unlock();
+                    }
+                    if (adjacent) {
+                        // the run is broken, start over after this seat
+                        unlockAll(nos, size);
+                        size = 0;
                     }
                 }
+                if (size == n) {
+                    begin();
+                    // each tour's count drops by the whole party at once,
+                    // so an inquiry never sees the party half seated
+                    int[] sold = new int[tourmax + 1];
+                    for (int i = 0; i < n; ++i) {
+                        tours[nos[i]].mark(tourid, nos[i], names[i], collision[tourid], res[i], sold);
+                    }
+                    for (int tour : collision[tourid]) {
+                        if (sold[tour] > 0) rests.subtract(tour, sold[tour]);
+                    }
+                    end();
+                    unlockAll(nos, n); // linearizable position of the whole party
+                    return true;
+                }
+                unlockAll(nos, size);
             }
+            return false;
+        }
 
-            rests = new AtomicInteger[tourmax + 1];
-            for (int i = 1; i <= tourmax; ++i) {
-                rests[i] = new AtomicInteger(nomax);
+        private void unlockAll(int[] nos, int size) {
+            for (int i = size - 1; i >= 0; --i) {
+                tours[nos[i]].unlock();
             }
-            empty = new AtomicInteger[tourmax + 1];
-            for (int i = 1; i <= tourmax; ++i) {
-                empty[i] = new AtomicInteger(1);
+        }
+
+        public boolean release(long ticket, int tourid, int no, String name) {
+            if (combiner != null) {
+                int done = combiner.refund(ticket, tourid, no, name);
+                if (done >= 0) {
+                    return done == 1;
+                }
             }
+            return tours[no].xor(ticket, tourid, no, name, collision[tourid]);
         }
 
-        public NoAndTicket acquire(int tourid, String name) {
-            retry: while (true) {
-                if (rests[tourid].get() == 0) {
-                    return null;
+        /**
+         * flat combining of the buys and refunds of this route
+         * a thread publishes its request in a slot, and whichever thread
+         * gets the combiner lock applies all pending requests: refunds first,
+         * then buys with a next-fit cursor per tour, so a batch of buys on a
+         * popular tour sweeps the seats once instead of racing for the same
+         * ones; seat locks are still taken, so direct calls stay safe
+         */
+        public class Combiner {
+            private static final int FREE = 0;
+            private static final int FILLING = 1;
+            private static final int PENDING = 2;
+            private static final int DONE = 3;
+            // wait this many times for the result before yielding
+            private static final int SPINS = 64;
+
+            private final Request[] slots;
+            private final int mask;
+            private final Lock lock = new ReentrantLock();
+            // seat to go on from for each tour, only used by the combiner
+            private final int[] cursors = new int[tourmax + 1];
+
+            public Combiner() {
+                int n = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors(), 1) * 4 - 1);
+                slots = new Request[n];
+                for (int i = 0; i < n; ++i) {
+                    slots[i] = new Request();
                 }
-                int no = empty[tourid].get(); // get the possible empty seat no
-                int next = no % nomax + 1;
-                NoAndTicket res = tours[no].or(tourid, no, name, collison[tourid]);
-                if (res != null) {
-                    empty[tourid].compareAndSet(no, next); // update it if no refund
-                    // still empty
-                    return res;
-                } else {
-                    // sold out
-                    while (rests[tourid].get() > 0) {
-                        // test the next seat
-                        if (tours[next].empty(tourid)) {
-                            res = tours[next].or(tourid, next, name, collison[tourid]);
-                            if (res != null) {
-                                empty[tourid].compareAndSet(no, next); // update it if no refund
-                                return res;
-                            }
-                        }
-                        if (empty[tourid].get() != no) {
-                            continue retry; // try to get the refunded seat
+                mask = n - 1;
+            }
+
+            /**
+             * @return numero of the bought seat, 0 when sold out, -1 if no slot is free
+             */
+            public int buy(int tourid, String name, Ticket res) {
+                Request request = claim();
+                if (request == null) return -1;
+                request.refund = false;
+                request.tourid = tourid;
+                request.name = name;
+                request.res = res;
+                return await(request);
+            }
+
+            /**
+             * @return 1 when refunded, 0 when not, -1 if no slot is free
+             */
+            public int refund(long ticket, int tourid, int no, String name) {
+                Request request = claim();
+                if (request == null) return -1;
+                request.refund = true;
+                request.tid = ticket;
+                request.tourid = tourid;
+                request.no = no;
+                request.name = name;
+                return await(request);
+            }
+
+            // a free slot near this thread's own one, null if all are busy
+            private Request claim() {
+                int home = (int) Thread.currentThread().getId();
+                for (int i = 0; i <= mask; ++i) {
+                    Request request = slots[(home + i) & mask];
+                    if (request.state == FREE && request.casState(FREE, FILLING)) {
+                        return request;
+                    }
+                }
+                return null;
+            }
+
+            private int await(Request request) {
+                request.state = PENDING;
+                for (int spin = 0; request.state != DONE; ++spin) {
+                    if (lock.tryLock()) {
+                        try {
+                            combine();
+                        } finally {
+                            lock.unlock();
                         }
-                        next = next % nomax + 1;
+                    } else if (spin < SPINS) {
+                        Thread.onSpinWait();
+                    } else {
+                        Thread.yield();
                     }
-                    return null;
                 }
+                int result = request.result;
+                if (durable) {
+                    // the combining thread appended the records for us
+                    written.get()[0] = request.written;
+                }
+                request.name = null;
+                request.res = null;
+                request.state = FREE;
+                return result;
+            }
+
+            // one pass over the slots, the caller holds the combiner lock
+            private void combine() {
+                for (Request request : slots) {
+                    if (request.state == PENDING && request.refund) {
+                        boolean done = tours[request.no].xor(request.tid, request.tourid,
+                                request.no, request.name, collision[request.tourid]);
+                        request.result = done ? 1 : 0;
+                        if (durable) request.written = written.get()[0];
+                        request.state = DONE;
+                    }
+                }
+                for (Request request : slots) {
+                    // refunds published meanwhile wait for the next pass
+                    if (request.state == PENDING && !request.refund) {
+                        request.result = sweep(request.tourid, request.name, request.res);
+                        if (durable) request.written = written.get()[0];
+                        request.state = DONE;
+                    }
+                }
+            }
+
+            // next fit from the tour's cursor, 0 when sold out
+            private int sweep(int tourid, String name, Ticket res) {
+                while (rests.get(tourid) > 0 || rests.exact(tourid) > 0) {
+                    int no = free.find(tourid, cursors[tourid]);
+                    if (no == 0) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    if (tours[no].or(tourid, no, name, collision[tourid], res)) {
+                        cursors[tourid] = no % nomax;
+                        return no;
+                    }
+                }
+                return 0;
             }
         }
 
-        public boolean release(long ticket, int tourid, int no, String name) {
-            return tours[no].xor(ticket, hashPass(tourid, no), no, name, collison[tourid]);
+        // one published buy or refund
+        private class Request {
+            private static final VarHandle STATE;
+            static {
+                try {
+                    STATE = MethodHandles.lookup().findVarHandle(Request.class, "state", int.class);
+                } catch (ReflectiveOperationException e) {
+                    throw new ExceptionInInitializerError(e);
+                }
+            }
+
+            volatile int state = Combiner.FREE;
+            // fields below are handed over by the volatile state
+            boolean refund;
+            int tourid;
+            int no;
+            long tid;
+            String name;
+            Ticket res;
+            int result;
+            // journal end to await, with Options.durable
+            long written;
+
+            boolean casState(int expect, int update) {
+                return STATE.compareAndSet(this, expect, update);
+            }
         }
 
         public int count(int tourid) {
-            return rests[tourid].get();
+            return exactInquiry ? rests.exact(tourid) : rests.get(tourid);
+        }
+
+        /**
+         * remaining tickets of the first n tours, read between two writes
+         * @param counts filled in the order of tourids
+         */
+        public void counts(int[] tourids, int n, int[] counts) {
+            if (version == null) {
+                for (int i = 0; i < n; ++i) {
+                    counts[i] = count(tourids[i]);
+                }
+                return;
+            }
+            long stamp;
+            do {
+                stamp = version.stamp();
+                // no writer in flight, so even striped sums are settled
+                for (int i = 0; i < n; ++i) {
+                    counts[i] = rests.get(tourids[i]);
+                }
+            } while (!version.validate(stamp));
+        }
+
+        /**
+         * remaining tickets of every tour in one sweep of the counters
+         * @param counts counts[tourid - 1] is filled for each tour
+         */
+        public void countAll(int[] counts) {
+            if (version == null) {
+                if (exactInquiry) {
+                    rests.exactAll(counts);
+                } else {
+                    rests.getAll(counts);
+                }
+                return;
+            }
+            long stamp;
+            do {
+                stamp = version.stamp();
+                rests.getAll(counts);
+            } while (!version.validate(stamp));
         }
     }
-    private RouteInfo[] routes = null;
+    // built on first touch, untouched routes cost one null reference
+    private AtomicReferenceArray<RouteInfo> routes = null;
 
     private void initRoutes() {
-        routes = new RouteInfo[routemax + 1];
-        for (int i = 1; i <= routemax; ++i) {
-            routes[i] = new RouteInfo();
+        routes = new AtomicReferenceArray<>(routemax + 1);
+    }
+
+    /**
+     * the route, built and published on first touch
+     * racing builders are resolved by CAS, the losers' copies are dropped
+     */
+    private RouteInfo route(int route) {
+        RouteInfo info = routes.get(route);
+        if (info == null) {
+            RouteInfo built = new RouteInfo(route);
+            info = routes.compareAndSet(route, null, built) ? built : routes.get(route);
         }
+        return info;
+    }
+
+    /**
+     * build routes known to be hot before the first request,
+     * spread over the common fork/join pool
+     * @param hot routes to build, illegal ones are ignored
+     */
+    public void prewarm(int... hot) {
+        Arrays.stream(hot)
+                .filter(route -> route > 0 && route <= routemax)
+                .parallel()
+                .forEach(this::route);
     }
 
     private int hashTour(int departure, int arrival) {
-        return ((((stationmax << 1) - departure) * (departure - 1)) >> 1) + arrival - departure;
+        return table.hash(departure, arrival);
     }
 
     private int hashNo(int coach, int seat) {
         return (coach - 1) * maxCoachAndSeat + seat;
     }
 
-    private int hashPass(int tour, int sel) {
-        return (tour - 1) * maxTourAndNo + sel;
-    }
-
     private int getCoach(int no) {
         int base = maxCoachAndSeat;
         if (no % base == 0) {
@@ -377,23 +1268,24 @@ public class TicketingDS implements TicketingSystem {
      * @return not null when this bought is legal
      */
     public Ticket buy(Ticket ticket) {
-        RouteInfo route = routes[ticket.route];
+        RouteInfo route = route(ticket.route);
         int no = hashNo(ticket.coach, ticket.seat);
         int tour = hashTour(ticket.departure, ticket.arrival);
-        int pass = hashPass(tour, no);
+        RouteInfo.SeatInfo seat = route.tours[no];
 
-        if (route.rests[tour].get() == 0) return null;
-        if (route.tours[no].vector[tour] > 0) return null;
-        if (route.passengers[pass] != null) return null;
+        if (route.rests.get(tour) == 0) return null;
+        if (seat.vector[tour] > 0) return null;
+        if (seat.find(tour) >= 0) return null;
 
-        for (int t : route.collison[tour]) {
-            if (route.tours[no].vector[t] == 0) {
-                route.rests[t].decrementAndGet();
+        for (int t : collision[tour]) {
+            if (seat.vector[t] == 0) {
+                route.rests.decrement(t);
+                route.free.clear(t, no);
             }
-            ++route.tours[no].vector[t];
+            ++seat.vector[t];
         }
 
-        route.passengers[pass] = new TidAndPassenger(ticket.tid, ticket.passenger);
+        seat.hold(tour, ticket.tid, ticket.passenger);
         return ticket;
     }
 
@@ -403,25 +1295,26 @@ public class TicketingDS implements TicketingSystem {
      * @return true when this refund is legal
      */
     public boolean refund(Ticket ticket) {
-        RouteInfo route = routes[ticket.route];
+        RouteInfo route = route(ticket.route);
         int no = hashNo(ticket.coach, ticket.seat);
         int tour = hashTour(ticket.departure, ticket.arrival);
-        int pass = hashPass(tour, no);
+        RouteInfo.SeatInfo seat = route.tours[no];
+        int pass = seat.find(tour);
 
-        if (route.tours[no].vector[tour] == 0) return false;
-        if (route.passengers[pass] == null) return false;
-        if (route.passengers[pass].tid != ticket.tid) return false;
-        if (!Objects.equals(route.passengers[pass].name, ticket.passenger)) return false;
+        if (seat.vector[tour] == 0) return false;
+        if (pass < 0) return false;
+        if (seat.heldTids[pass] != ticket.tid) return false;
+        if (!Objects.equals(seat.heldNames[pass], ticket.passenger)) return false;
 
-        for (int t : route.collison[tour]) {
-            --route.tours[no].vector[t];
-            if (route.tours[no].vector[t] == 0) {
-                route.rests[t].incrementAndGet();
-                route.empty[t].set(no);
+        for (int t : collision[tour]) {
+            --seat.vector[t];
+            if (seat.vector[t] == 0) {
+                route.rests.increment(t);
+                route.free.set(t, no);
             }
         }
 
-        route.passengers[pass] = null;
+        seat.drop(pass);
         return true;
     }
 }
@@ -0,0 +1,100 @@
+package ticketingsystem;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * flight recorder events of TicketingDS
+ * compiled in for the whole JVM with -Dticketingsystem.jfr=true, a static
+ * final constant like Latency.ENABLED; which events are recorded and above
+ * which duration is then set by the recording settings, see ticketing.jfc:
+ * java -Dticketingsystem.jfr=true
+ *     -XX:StartFlightRecording:settings=default,settings=ticketing.jfc,filename=ticketing.jfr ...
+ */
+public final class TicketingEvents {
+    public static final boolean ENABLED = Boolean.getBoolean("ticketingsystem.jfr");
+
+    private TicketingEvents() {
+    }
+
+    @Name("ticketingsystem.Buy")
+    @Label("Buy Ticket")
+    @Category("Ticketing")
+    @StackTrace(false)
+    public static class Buy extends Event {
+        @Label("Route")
+        int route;
+        @Label("Departure")
+        int departure;
+        @Label("Arrival")
+        int arrival;
+        @Label("Coach")
+        @Description("0 when sold out")
+        int coach;
+        @Label("Seat")
+        int seat;
+        @Label("Probes")
+        @Description("seats tried before one was bought, 0 when combined")
+        int probes;
+        @Label("Rejected")
+        @Description("shed or interrupted by the admission control")
+        boolean rejected;
+    }
+
+    @Name("ticketingsystem.Refund")
+    @Label("Refund Ticket")
+    @Category("Ticketing")
+    @StackTrace(false)
+    public static class Refund extends Event {
+        @Label("Route")
+        int route;
+        @Label("Departure")
+        int departure;
+        @Label("Arrival")
+        int arrival;
+        @Label("Coach")
+        int coach;
+        @Label("Seat")
+        int seat;
+        @Label("Refunded")
+        boolean refunded;
+        @Label("Rejected")
+        @Description("shed or interrupted by the admission control")
+        boolean rejected;
+    }
+
+    @Name("ticketingsystem.Inquiry")
+    @Label("Inquiry")
+    @Category("Ticketing")
+    @StackTrace(false)
+    public static class Inquiry extends Event {
+        @Label("Route")
+        int route;
+        @Label("Departure")
+        int departure;
+        @Label("Arrival")
+        int arrival;
+        @Label("Remaining")
+        int remaining;
+        @Label("Rejected")
+        @Description("shed or interrupted by the admission control")
+        boolean rejected;
+    }
+
+    @Name("ticketingsystem.SeatLock")
+    @Label("Seat Lock Contended")
+    @Description("wait for a seat lock held by another thread")
+    @Category("Ticketing")
+    public static class SeatLock extends Event {
+        @Label("Route")
+        int route;
+        @Label("Coach")
+        int coach;
+        @Label("Seat")
+        int seat;
+    }
+}
@@ -15,4 +15,76 @@ public interface TicketingSystem {
 	Ticket buyTicket(String passenger, int route, int departure, int arrival);
 	int inquiry(int route, int departure, int arrival);
 	boolean refundTicket(Ticket ticket);
+
+	/**
+	 * remaining tickets of several tours of one route
+	 * this fallback inquires the tours one by one, engines which can
+	 * read all of them at one moment override it
+	 * @param departures departure of each tour
+	 * @param arrivals arrival of each tour
+	 * @param counts filled with the remaining tickets of each tour
+	 * @return false for illegal arguments
+	 */
+	default boolean inquiry(int route, int[] departures, int[] arrivals, int[] counts) {
+		if (departures == null || arrivals == null || counts == null) return false;
+		if (arrivals.length != departures.length || counts.length < departures.length) return false;
+		for (int i = 0; i < departures.length; ++i) {
+			counts[i] = inquiry(route, departures[i], arrivals[i]);
+			if (counts[i] < 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * remaining tickets of every tour of one route in one call
+	 * tours are ordered by departure and then by arrival, <1,2> <1,3> .. <2,3> ..,
+	 * so a route of n stations fills n * (n - 1) / 2 counts
+	 * @param counts filled with the remaining tickets of each tour
+	 * @return false for an illegal route or too short counts
+	 */
+	boolean inquiryAll(int route, int[] counts);
+
+	/**
+	 * remaining tickets of every tour of several routes
+	 * @param counts counts[i] is filled like inquiryAll(routes[i], counts[i])
+	 * @return false for an illegal route or too short counts
+	 */
+	default boolean inquiryAll(int[] routes, int[][] counts) {
+		if (routes == null || counts == null || counts.length < routes.length) return false;
+		for (int i = 0; i < routes.length; ++i) {
+			if (!inquiryAll(routes[i], counts[i])) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * buy tickets of the same tour for a party, all in one coach, all or nothing
+	 * this fallback buys the seats one by one and refunds them again
+	 * when the party does not fit: it is not atomic, other callers may see
+	 * the seats sold for a while, and since it takes whatever seats
+	 * buyTicket hands out it may give up although a coach had room;
+	 * TicketingDS and ActorTicketingDS override it and seat the party in
+	 * one step, LockFreeTicketingDS throws UnsupportedOperationException
+	 * @param passengers names of the party
+	 * @param adjacent true if the seats must also be consecutive
+	 * @return tickets in the order of passengers, null if the party can not be seated
+	 */
+	default Ticket[] buyTickets(String[] passengers, int route, int departure, int arrival, boolean adjacent) {
+		if (passengers == null || passengers.length == 0) return null;
+		Ticket[] tickets = new Ticket[passengers.length];
+		boolean seated = true;
+		for (int i = 0; i < passengers.length && seated; ++i) {
+			tickets[i] = buyTicket(passengers[i], route, departure, arrival);
+			seated = tickets[i] != null
+					&& tickets[i].coach == tickets[0].coach
+					&& (!adjacent || tickets[i].seat == tickets[0].seat + i);
+		}
+		if (!seated) {
+			for (Ticket ticket : tickets) {
+				if (ticket != null) refundTicket(ticket);
+			}
+			return null;
+		}
+		return tickets;
+	}
 }
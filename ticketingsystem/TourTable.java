@@ -0,0 +1,88 @@
+package ticketingsystem;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * immutable tour index tables of one station count
+ * a tour is a (departure, arrival) pair hashed into 1 .. tourmax,
+ * the tables only depend on the station count, so one instance is
+ * shared by every route of every engine with the same stations
+ */
+public final class TourTable {
+    private static final ConcurrentHashMap<Integer, TourTable> tables = new ConcurrentHashMap<>();
+
+    /**
+     * @param stationnum stations of each route
+     * @return the shared table of this station count
+     */
+    public static TourTable of(int stationnum) {
+        return tables.computeIfAbsent(stationnum, TourTable::new);
+    }
+
+    public final int stationmax;
+    public final int tourmax;
+
+    // departure and arrival of each tour
+    public final int[] departures;
+    public final int[] arrivals;
+
+    // tours sharing at least one segment with each tour, in ascending order
+    public final int[][] collision;
+
+    // segment bits of each tour, bit (s - 1) for station s to s + 1
+    // null when there are more than 64 segments
+    public final long[] masks;
+
+    private TourTable(int stationnum) {
+        stationmax = stationnum;
+        /// how many tours in total (only single direction)
+        tourmax = (stationmax * (stationmax - 1)) >> 1;
+
+        departures = new int[tourmax + 1];
+        arrivals = new int[tourmax + 1];
+        for (int dep = 1; dep <= stationmax; ++dep) {
+            for (int arr = dep + 1; arr <= stationmax; ++arr) {
+                int key = hash(dep, arr);
+                departures[key] = dep;
+                arrivals[key] = arr;
+            }
+        }
+
+        // two tours collide when each one departs before the other arrives
+        collision = new int[tourmax + 1][];
+        int[] overlapped = new int[tourmax];
+        for (int i = 1; i <= tourmax; ++i) {
+            int size = 0;
+            for (int j = 1; j <= tourmax; ++j) {
+                if (departures[j] < arrivals[i] && departures[i] < arrivals[j]) {
+                    overlapped[size++] = j;
+                }
+            }
+            collision[i] = Arrays.copyOf(overlapped, size);
+        }
+
+        if (stationmax - 1 <= Long.SIZE) {
+            masks = new long[tourmax + 1];
+            for (int i = 1; i <= tourmax; ++i) {
+                masks[i] = segments(departures[i], arrivals[i]);
+            }
+        } else {
+            masks = null;
+        }
+    }
+
+    /**
+     * @return hashed code of the tour e.g. <1,2> = 1 <1,3> = 2
+     */
+    public int hash(int departure, int arrival) {
+        return ((((stationmax << 1) - departure) * (departure - 1)) >> 1) + arrival - departure;
+    }
+
+    // bits of the segments from departure to arrival
+    private static long segments(int departure, int arrival) {
+        int width = arrival - departure;
+        long bits = width == Long.SIZE ? -1L : (1L << width) - 1;
+        return bits << (departure - 1);
+    }
+}
@@ -1,8 +1,13 @@
 package ticketingsystem;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import ticketingsystem.verify.Execution;
+import ticketingsystem.verify.TraceFile;
+
 class ThreadId {
     // Atomic integer containing the next thread ID to be assigned
     private static final AtomicInteger nextId = new AtomicInteger(0);
@@ -33,14 +38,36 @@ public class Trace {
 	final static int buypc = 60; // buy ticket operation is 30% percent
 	final static int inqpc = 100; //inquiry ticket operation is 60% percent
 	
+	// binary trace when a file is given, see TraceFile
+	static TraceFile.Writer binary;
+
 	static String passengerName() {
 		Random rand = new Random();
 		long uid = rand.nextInt(testnum);
 		return "passenger" + uid; 
 	}
 
+	static void record(long preTime, long postTime, Execution.Opcode opcode, long tid, String passenger,
+					   int route, int coach, int seat, int departure, int arrival, int left) {
+		try {
+			binary.write(preTime, postTime, opcode, ThreadId.get(), tid, passenger, route, coach, seat, departure, arrival, left);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * usage: Trace [file], prints the text trace or writes a binary one to file
+	 */
 	public static void main(String[] args) throws InterruptedException {
-        
+		if (args.length > 0) {
+			try {
+				binary = new TraceFile.Writer(Paths.get(args[0]));
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
 		 
 		Thread[] threads = new Thread[threadnum];
 		
@@ -63,14 +90,26 @@ public class Trace {
 											long preTime = System.nanoTime() - startTime;
             					if (tds.refundTicket(ticket)) {
 												long postTime = System.nanoTime() - startTime;
+												if (binary != null) {
+													record(preTime, postTime, Execution.Opcode.REFUND, ticket.tid, ticket.passenger, ticket.route, ticket.coach, ticket.seat, ticket.departure, ticket.arrival, -1);
+													continue;
+												}
             						System.out.println(preTime + " " + postTime + " " + ThreadId.get() + " " + "TicketRefund" + " " + ticket.tid + " " + ticket.passenger + " " + ticket.route + " " + ticket.coach  + " " + ticket.departure + " " + ticket.arrival + " " + ticket.seat);
             						System.out.flush();
             					} else {
+												if (binary != null) {
+													record(preTime, System.nanoTime() - startTime, Execution.Opcode.ERROR, -1, null, -1, -1, -1, -1, -1, -1);
+													continue;
+												}
             						System.out.println(preTime + " " + String.valueOf(System.nanoTime()-startTime) + " " + ThreadId.get() + " " + "ErrOfRefund");
             						System.out.flush();
             					}
             				} else {
 											long preTime = System.nanoTime() - startTime;
+											if (binary != null) {
+												record(preTime, System.nanoTime() - startTime, Execution.Opcode.ERROR, -1, null, -1, -1, -1, -1, -1, -1);
+												continue;
+											}
             					System.out.println(preTime + " " + String.valueOf(System.nanoTime()-startTime) + " " + ThreadId.get() + " " + "ErrOfRefund");
         						System.out.flush();
             				}
@@ -82,10 +121,18 @@ public class Trace {
 										long preTime = System.nanoTime() - startTime;
             				if ((ticket = tds.buyTicket(passenger, route, departure, arrival)) != null) {
 											long postTime = System.nanoTime() - startTime;
-            					System.out.println(preTime + " " + postTime + " " + ThreadId.get() + " " + "TicketBought" + " " + ticket.tid + " " + ticket.passenger + " " + ticket.route + " " + ticket.coach + " " + ticket.departure + " " + ticket.arrival + " " + ticket.seat);
             					soldTicket.add(ticket);
+											if (binary != null) {
+												record(preTime, postTime, Execution.Opcode.BUY, ticket.tid, ticket.passenger, ticket.route, ticket.coach, ticket.seat, ticket.departure, ticket.arrival, -1);
+												continue;
+											}
+            					System.out.println(preTime + " " + postTime + " " + ThreadId.get() + " " + "TicketBought" + " " + ticket.tid + " " + ticket.passenger + " " + ticket.route + " " + ticket.coach + " " + ticket.departure + " " + ticket.arrival + " " + ticket.seat);
         						System.out.flush();
             				} else {
+											if (binary != null) {
+												record(preTime, System.nanoTime() - startTime, Execution.Opcode.SOLD, -1, null, route, -1, -1, departure, arrival, -1);
+												continue;
+											}
             					System.out.println(preTime + " " + String.valueOf(System.nanoTime()-startTime) + " " + ThreadId.get() + " " + "TicketSoldOut" + " " + route + " " + departure+ " " + arrival);
         						System.out.flush();
             				}
@@ -97,6 +144,10 @@ public class Trace {
 										long preTime = System.nanoTime() - startTime;
             				int leftTicket = tds.inquiry(route, departure, arrival);
 										long postTime = System.nanoTime() - startTime;
+										if (binary != null) {
+											record(preTime, postTime, Execution.Opcode.INQUIRY, -1, null, route, -1, -1, departure, arrival, leftTicket);
+											continue;
+										}
             				System.out.println(preTime + " " + postTime + " " + ThreadId.get() + " " + "RemainTicket" + " " + leftTicket + " " + route+ " " + departure+ " " + arrival);
     						System.out.flush();  
     						         			
@@ -111,5 +162,12 @@ public class Trace {
 	    for (int i = 0; i< threadnum; i++) {
 	    	threads[i].join();
 	    }		
+		if (binary != null) {
+			try {
+				binary.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 	}
 }
@@ -24,7 +24,7 @@ public class Execution {
             return Execution.Opcode.REFUND;
         } else if (trace.contains("TicketSoldOut")) {
             return Execution.Opcode.SOLD;
-        } else if (trace.contains("ErrorOfRefund")) {
+        } else if (trace.contains("ErrOfRefund") || trace.contains("ErrorOfRefund")) {
             return Execution.Opcode.ERROR;
         } else if (trace.contains("RemainTicket")) {
             return Execution.Opcode.INQUIRY;
@@ -95,7 +95,8 @@ public class Execution {
 
     static public Execution build(String trace) {
         String[] sub = trace.split(" ");
-        Execution.Opcode op = parse(trace);
+        // the opcode is the fourth field, no need to search the whole line
+        Execution.Opcode op = sub.length > 3 ? parse(sub[3]) : Execution.Opcode.NULL;
         switch (op) {
             case BUY:
             case REFUND: return new Execution(
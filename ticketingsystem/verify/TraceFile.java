@@ -0,0 +1,238 @@
+package ticketingsystem.verify;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * binary form of the text traces written by Trace and Test
+ * layout, big endian: int MAGIC, int VERSION, then one fixed record of
+ * RECORD bytes per execution:
+ *   long pre, long post, long tid (remaining tickets for an inquiry),
+ *   int name, unsigned short thread, route, coach, seat, departure, arrival,
+ *   byte opcode (ordinal of Execution.Opcode), byte 0
+ * a record with opcode END closes the executions and is followed by the
+ * passenger dictionary: int count, then for name id 0 .. count - 1 an int
+ * length and the name in UTF-8; a record's name is its id, -1 for none
+ * usage: TraceFile <input> <output> converts a text trace to binary and
+ * a binary one back to text, so verify.jar can still read every trace
+ */
+public final class TraceFile {
+    // "TKTR"
+    public static final int MAGIC = 0x544B5452;
+    public static final int VERSION = 1;
+    static final int RECORD = 42;
+    private static final int END = 0xFF;
+    private static final int OPCODE = 40;
+
+    private TraceFile() {
+    }
+
+    /**
+     * appends executions to a binary trace, names go to the dictionary on
+     * first use; safe to share between threads
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+
+        public Writer(OutputStream stream) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        public Writer(Path file) throws IOException {
+            this(new FileOutputStream(file.toFile()));
+        }
+
+        /**
+         * @param name passenger of a buy or refund, null for the others
+         */
+        public synchronized void write(long pre, long post, Execution.Opcode opcode, int thread, long tid, String name,
+                                       int route, int coach, int seat, int departure, int arrival, int left) throws IOException {
+            int id = -1;
+            if (name != null) {
+                Integer known = ids.get(name);
+                if (known == null) {
+                    known = names.size();
+                    ids.put(name, known);
+                    names.add(name);
+                }
+                id = known;
+            }
+            out.writeLong(pre);
+            out.writeLong(post);
+            out.writeLong(opcode == Execution.Opcode.INQUIRY ? left : tid);
+            out.writeInt(id);
+            out.writeShort(unsigned(thread));
+            out.writeShort(unsigned(route));
+            out.writeShort(unsigned(coach));
+            out.writeShort(unsigned(seat));
+            out.writeShort(unsigned(departure));
+            out.writeShort(unsigned(arrival));
+            out.writeByte(opcode.ordinal());
+            out.writeByte(0);
+        }
+
+        public void write(Execution e) throws IOException {
+            write(e.preTime, e.postTime, e.opcode, e.threadId, e.ticketId, e.name,
+                    e.route, e.coach, e.seat, e.departure, e.arrival, e.left);
+        }
+
+        // fields not used by an opcode are -1 in Execution and stored as 0
+        private static int unsigned(int value) throws IOException {
+            if (value < 0) {
+                return 0;
+            }
+            if (value > 0xFFFF) {
+                throw new IOException(value + " does not fit in a trace record");
+            }
+            return value;
+        }
+
+        /**
+         * close the executions and write the dictionary
+         */
+        public synchronized void close() throws IOException {
+            out.write(new byte[OPCODE]);
+            out.writeByte(END);
+            out.writeByte(0);
+            out.writeInt(names.size());
+            for (String name : names) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * @return true if the file starts like a binary trace
+     */
+    public static boolean isBinary(Path file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file.toFile()))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * load a binary trace, the file is mapped rather than read
+     */
+    public static Vector<Execution> read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static Vector<Execution> read(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("not a binary trace");
+            }
+            int version = buffer.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("unsupported trace version " + version);
+            }
+            // the dictionary follows the END record
+            int end = 8;
+            while ((buffer.get(end + OPCODE) & 0xFF) != END) {
+                end += RECORD;
+            }
+            buffer.position(end + RECORD);
+            String[] names = new String[buffer.getInt()];
+            for (int i = 0; i < names.length; ++i) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                names[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            Execution.Opcode[] opcodes = Execution.Opcode.values();
+            Vector<Execution> executions = new Vector<>((end - 8) / RECORD);
+            buffer.position(8);
+            while (buffer.position() < end) {
+                long pre = buffer.getLong();
+                long post = buffer.getLong();
+                long tid = buffer.getLong();
+                int name = buffer.getInt();
+                int thread = buffer.getShort() & 0xFFFF;
+                int route = buffer.getShort() & 0xFFFF;
+                int coach = buffer.getShort() & 0xFFFF;
+                int seat = buffer.getShort() & 0xFFFF;
+                int departure = buffer.getShort() & 0xFFFF;
+                int arrival = buffer.getShort() & 0xFFFF;
+                int opcode = buffer.get() & 0xFF;
+                buffer.get();
+                Execution execution;
+                switch (opcode < opcodes.length ? opcodes[opcode] : Execution.Opcode.NULL) {
+                    case BUY:
+                    case REFUND:
+                        execution = new Execution(pre, post, opcodes[opcode], thread, tid,
+                                name >= 0 ? names[name] : null, route, coach, seat, departure, arrival);
+                        break;
+                    case INQUIRY:
+                        execution = new Execution(pre, post, opcodes[opcode], thread, route, departure, arrival, (int) tid);
+                        break;
+                    case SOLD:
+                        execution = new Execution(pre, post, opcodes[opcode], thread, route, departure, arrival);
+                        break;
+                    case ERROR:
+                        execution = new Execution(pre, post, opcodes[opcode], thread);
+                        break;
+                    default:
+                        throw new IOException("invalid opcode " + opcode + " at " + (buffer.position() - RECORD));
+                }
+                executions.add(execution);
+            }
+            return executions;
+        } catch (IndexOutOfBoundsException | java.nio.BufferUnderflowException e) {
+            throw new IOException("truncated trace", e);
+        }
+    }
+
+    /**
+     * convert between the text and the binary form, by the form of the input
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("usage: TraceFile <input> <output>");
+            return;
+        }
+        Path input = Paths.get(args[0]);
+        Path output = Paths.get(args[1]);
+        try {
+            if (isBinary(input)) {
+                try (BufferedWriter writer = new BufferedWriter(new FileWriter(output.toFile()))) {
+                    for (Execution execution : read(input)) {
+                        writer.write(execution.toString());
+                        writer.newLine();
+                    }
+                }
+            } else {
+                try (BufferedReader reader = new BufferedReader(new FileReader(input.toFile()));
+                     Writer writer = new Writer(output)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        Execution execution = Execution.build(line);
+                        if (execution == null) {
+                            System.out.println("Invalid " + line);
+                            return;
+                        }
+                        writer.write(execution);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
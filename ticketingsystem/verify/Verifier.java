@@ -345,6 +345,15 @@ public class Verifier {
     public boolean importTrace(String filename) {
         File file = new File(filename);
         if (file.isFile() && file.exists()) {
+            if (TraceFile.isBinary(file.toPath())) {
+                try {
+                    trace.addAll(TraceFile.read(file.toPath()));
+                    return true;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return false;
+                }
+            }
             try {
                 BufferedReader reader = new BufferedReader(new FileReader(file));
                 String line = null;
@@ -372,6 +381,11 @@ public class Verifier {
         info.forEach(i -> trace.add(Execution.build(i)));
     }
 
+    // executions recorded in binary, nothing to parse
+    public void importExecutions(List<Execution> executions) {
+        trace.addAll(executions);
+    }
+
     public void reset() {
         timeout.set(false);
         trace = new Vector<>();